@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2021 ZeoFlow SRL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zeoflow.jx.file;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * The members of an annotation type sorted by name, as {@link AnnotationSpec#get(Annotation,
+ * boolean)} reads them. Looking up, sorting and binding the members is done once per annotation
+ * type; the cache doesn't keep the annotation type or its class loader reachable.
+ */
+final class AnnotationMembers
+{
+
+    /**
+     * A member whose value is emitted as it is.
+     */
+    static final byte VALUE = 0;
+    /**
+     * A member whose value is an array, emitted element by element.
+     */
+    static final byte ARRAY = 1;
+    /**
+     * A member whose value is an annotation.
+     */
+    static final byte ANNOTATION = 2;
+
+    private static final TypeCache CACHE = newTypeCache();
+    private static final MethodType ACCESSOR_TYPE = MethodType.methodType(Object.class, Annotation.class);
+
+    final String[] names;
+    final byte[] kinds;
+    final Object[] defaultValues;
+    private final Method[] methods;
+    /**
+     * Accessors of type {@code (Annotation)Object}, or null to read members through {@link #methods}
+     * on runtimes without method handles.
+     */
+    private final MethodHandle[] accessors;
+
+    private AnnotationMembers(Class<?> type, boolean bindAccessors) throws IllegalAccessException
+    {
+        Method[] methods = type.getDeclaredMethods();
+        Arrays.sort(methods, Comparator.comparing(Method::getName));
+        this.methods = methods;
+        this.names = new String[methods.length];
+        this.kinds = new byte[methods.length];
+        this.defaultValues = new Object[methods.length];
+        this.accessors = bindAccessors ? new MethodHandle[methods.length] : null;
+        for (int i = 0; i < methods.length; i++)
+        {
+            Method method = methods[i];
+            Class<?> returnType = method.getReturnType();
+            names[i] = method.getName();
+            kinds[i] = returnType.isArray() ? ARRAY : returnType.isAnnotation() ? ANNOTATION : VALUE;
+            defaultValues[i] = method.getDefaultValue();
+            if (accessors != null)
+            {
+                accessors[i] = MethodHandles.publicLookup().unreflect(method).asType(ACCESSOR_TYPE);
+            }
+        }
+    }
+
+    /**
+     * Returns the members of {@code type}.
+     */
+    static AnnotationMembers get(Class<? extends Annotation> type)
+    {
+        return CACHE.get(type);
+    }
+
+    /**
+     * Returns the value of the member at {@code index} in {@code annotation}.
+     */
+    Object value(int index, Annotation annotation) throws Throwable
+    {
+        if (accessors == null) return methods[index].invoke(annotation);
+        return (Object) accessors[index].invokeExact(annotation);
+    }
+
+    private static TypeCache newTypeCache()
+    {
+        try
+        {
+            Class.forName("java.lang.ClassValue");
+            return new ClassValueCache();
+        } catch (ClassNotFoundException e)
+        {
+            // Older Android runtimes don't have ClassValue, nor method handles.
+            return new WeakTypeCache();
+        }
+    }
+
+    private interface TypeCache
+    {
+        AnnotationMembers get(Class<?> type);
+    }
+
+    private static final class ClassValueCache extends ClassValue<AnnotationMembers>
+            implements TypeCache
+    {
+        @Override
+        protected AnnotationMembers computeValue(Class<?> type)
+        {
+            try
+            {
+                return new AnnotationMembers(type, true);
+            } catch (IllegalAccessException e)
+            {
+                throw new IllegalArgumentException(type + " is not accessible", e);
+            }
+        }
+    }
+
+    /**
+     * Members reference their annotation type, so they're held softly to let the weak key go.
+     */
+    private static final class WeakTypeCache implements TypeCache
+    {
+        private final Map<Class<?>, SoftReference<AnnotationMembers>> cache = new WeakHashMap<>();
+
+        @Override
+        public synchronized AnnotationMembers get(Class<?> type)
+        {
+            SoftReference<AnnotationMembers> reference = cache.get(type);
+            AnnotationMembers result = reference != null ? reference.get() : null;
+            if (result == null)
+            {
+                try
+                {
+                    result = new AnnotationMembers(type, false);
+                } catch (IllegalAccessException e)
+                {
+                    throw new AssertionError(e); // Only binding accessors checks access.
+                }
+                cache.put(type, new SoftReference<>(result));
+            }
+            return result;
+        }
+    }
+
+}
@@ -27,11 +27,7 @@ import javax.lang.model.util.SimpleAnnotationValueVisitor8;
 
 import java.io.IOException;
 import java.lang.annotation.Annotation;
-import java.lang.reflect.Array;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -46,6 +42,7 @@ public final class AnnotationSpec
 
     public final TypeName type;
     public final Map<String, List<CodeBlock>> members;
+    private int cachedHashCode;
 
     private AnnotationSpec(Builder builder)
     {
@@ -61,39 +58,104 @@ public final class AnnotationSpec
         Builder builder = builder(annotation.annotationType());
         try
         {
-            Method[] methods = annotation.annotationType().getDeclaredMethods();
-            Arrays.sort(methods, Comparator.comparing(Method::getName));
-            for (Method method : methods)
+            AnnotationMembers members = AnnotationMembers.get(annotation.annotationType());
+            for (int i = 0; i < members.names.length; i++)
             {
-                Object value = method.invoke(annotation);
+                String name = members.names[i];
+                Object value = members.value(i, annotation);
                 if (!includeDefaultValues)
                 {
-                    if (Objects.deepEquals(value, method.getDefaultValue()))
+                    if (Objects.deepEquals(value, members.defaultValues[i]))
                     {
                         continue;
                     }
                 }
-                if (value.getClass().isArray())
+                switch (members.kinds[i])
                 {
-                    for (int i = 0; i < Array.getLength(value); i++)
-                    {
-                        builder.addMemberForValue(method.getName(), Array.get(value, i));
-                    }
-                    continue;
-                }
-                if (value instanceof Annotation)
-                {
-                    builder.addMember(method.getName(), "$L", get((Annotation) value));
-                    continue;
+                    case AnnotationMembers.ARRAY:
+                        addArrayMember(builder, name, value);
+                        break;
+                    case AnnotationMembers.ANNOTATION:
+                        builder.addMember(name, "$L", get((Annotation) value));
+                        break;
+                    default:
+                        builder.addMemberForValue(name, value);
+                        break;
                 }
-                builder.addMemberForValue(method.getName(), value);
             }
-        } catch (Exception e)
+        } catch (Error e)
+        {
+            throw e;
+        } catch (Throwable e)
         {
             throw new RuntimeException("Reflecting " + annotation + " failed!", e);
         }
         return builder.build();
     }
+
+    /**
+     * Adds each element of the array {@code value} to {@code memberName}, without going through
+     * {@link java.lang.reflect.Array} for every element.
+     */
+    private static void addArrayMember(Builder builder, String memberName, Object value)
+    {
+        if (value instanceof Object[])
+        {
+            for (Object element : (Object[]) value)
+            {
+                builder.addMemberForValue(memberName, element);
+            }
+        } else if (value instanceof int[])
+        {
+            for (int element : (int[]) value)
+            {
+                builder.addMemberForValue(memberName, element);
+            }
+        } else if (value instanceof long[])
+        {
+            for (long element : (long[]) value)
+            {
+                builder.addMemberForValue(memberName, element);
+            }
+        } else if (value instanceof boolean[])
+        {
+            for (boolean element : (boolean[]) value)
+            {
+                builder.addMemberForValue(memberName, element);
+            }
+        } else if (value instanceof byte[])
+        {
+            for (byte element : (byte[]) value)
+            {
+                builder.addMemberForValue(memberName, element);
+            }
+        } else if (value instanceof short[])
+        {
+            for (short element : (short[]) value)
+            {
+                builder.addMemberForValue(memberName, element);
+            }
+        } else if (value instanceof char[])
+        {
+            for (char element : (char[]) value)
+            {
+                builder.addMemberForValue(memberName, element);
+            }
+        } else if (value instanceof float[])
+        {
+            for (float element : (float[]) value)
+            {
+                builder.addMemberForValue(memberName, element);
+            }
+        } else
+        {
+            for (double element : (double[]) value)
+            {
+                builder.addMemberForValue(memberName, element);
+            }
+        }
+    }
+
     public static AnnotationSpec get(AnnotationMirror annotation)
     {
         TypeElement element = (TypeElement) annotation.getAnnotationType().asElement();
@@ -123,11 +185,11 @@ public final class AnnotationSpec
         if (members.isEmpty())
         {
             // @Singleton
-            codeWriter.emit("@$T", type);
+            codeWriter.emit("@").emitType(type);
         } else if (members.size() == 1 && members.containsKey("value"))
         {
             // @Named("foo")
-            codeWriter.emit("@$T(", type);
+            codeWriter.emit("@").emitType(type).emit("(");
             emitAnnotationValues(codeWriter, whitespace, memberSeparator, members.get("value"));
             codeWriter.emit(")");
         } else
@@ -140,13 +202,13 @@ public final class AnnotationSpec
             //       name = "updated_at",
             //       nullable = false
             //   )
-            codeWriter.emit("@$T(" + whitespace, type);
+            codeWriter.emit("@").emitType(type).emit("(" + whitespace);
             codeWriter.indent(2);
             for (Iterator<Map.Entry<String, List<CodeBlock>>> i
                  = members.entrySet().iterator(); i.hasNext(); )
             {
                 Map.Entry<String, List<CodeBlock>> entry = i.next();
-                codeWriter.emit("$L = ", entry.getKey());
+                codeWriter.emit(entry.getKey()).emit(" = ");
                 emitAnnotationValues(codeWriter, whitespace, memberSeparator, entry.getValue());
                 if (i.hasNext()) codeWriter.emit(memberSeparator);
             }
@@ -193,13 +255,22 @@ public final class AnnotationSpec
         if (this == o) return true;
         if (o == null) return false;
         if (getClass() != o.getClass()) return false;
-        return toString().equals(o.toString());
+        AnnotationSpec that = (AnnotationSpec) o;
+        return hashCode() == that.hashCode()
+                && type.equals(that.type)
+                && Util.orderedEquals(members, that.members);
     }
 
     @Override
     public int hashCode()
     {
-        return toString().hashCode();
+        int result = cachedHashCode;
+        if (result == 0)
+        {
+            result = 31 * type.hashCode() + members.hashCode();
+            cachedHashCode = result;
+        }
+        return result;
     }
 
     @Override
@@ -209,7 +280,7 @@ public final class AnnotationSpec
         try
         {
             CodeWriter codeWriter = new CodeWriter(out);
-            codeWriter.emit("$L", this);
+            emit(codeWriter, true);
             return out.toString();
         } catch (IOException e)
         {
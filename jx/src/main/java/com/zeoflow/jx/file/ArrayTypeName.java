@@ -26,6 +26,8 @@ import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 public final class ArrayTypeName extends TypeName
 {
@@ -73,7 +75,7 @@ public final class ArrayTypeName extends TypeName
      */
     public static ArrayTypeName get(GenericArrayType type)
     {
-        return get(type, new LinkedHashMap<>());
+        return (ArrayTypeName) TypeNameCache.get(type);
     }
     static ArrayTypeName get(GenericArrayType type, Map<Type, TypeVariableName> map)
     {
@@ -90,6 +92,29 @@ public final class ArrayTypeName extends TypeName
         return new ArrayTypeName(componentType);
     }
     @Override
+    boolean anyComponentMatches(Predicate<? super TypeName> predicate)
+    {
+        return componentType.anyMatch(predicate);
+    }
+    @Override
+    TypeName substituteComponents(Function<? super TypeName, ? extends TypeName> substitution)
+    {
+        TypeName newComponentType = componentType.substitute(substitution);
+        if (newComponentType == componentType) return this;
+        return new ArrayTypeName(newComponentType, annotations);
+    }
+    @Override
+    boolean structurallyEquals(TypeName o)
+    {
+        ArrayTypeName that = (ArrayTypeName) o;
+        return componentType.equals(that.componentType) && annotations.equals(that.annotations);
+    }
+    @Override
+    int structuralHashCode()
+    {
+        return 31 * componentType.hashCode() + annotations.hashCode();
+    }
+    @Override
     CodeWriter emit(CodeWriter out) throws IOException
     {
         return emit(out, false);
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2021 ZeoFlow SRL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zeoflow.jx.file;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Name;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Elements;
+
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static com.zeoflow.jx.file.Util.checkNotNull;
+
+/**
+ * An {@link Elements} that remembers the results of {@link #getPackageElement}, {@link
+ * #getTypeElement}, {@link #getAllMembers} and {@link #getAllAnnotationMirrors}, and delegates
+ * everything else. Names are compared by their contents and elements by identity. Missing packages
+ * and types are remembered too.
+ *
+ * <p>Elements are only valid for a single processing round, and types generated by a round can
+ * only be found by later rounds, so call {@link #clear} when a round starts, or create a new
+ * instance. This class isn't thread-safe.
+ *
+ * <p>This implements {@code Elements} as of Java 8; methods added in later versions, such as the
+ * module queries, use their default implementations instead of the delegate's.
+ */
+public final class CachingElements implements Elements
+{
+
+    private final Elements delegate;
+    private final Map<String, PackageElement> packageElements = new HashMap<>();
+    private final Map<String, TypeElement> typeElements = new HashMap<>();
+    private final Map<TypeElement, List<? extends Element>> allMembers = new IdentityHashMap<>();
+    private final Map<Element, List<? extends AnnotationMirror>> allAnnotationMirrors =
+            new IdentityHashMap<>();
+    private long hitCount;
+    private long missCount;
+
+    public CachingElements(Elements delegate)
+    {
+        this.delegate = checkNotNull(delegate, "delegate == null");
+    }
+
+    /**
+     * Returns a caching wrapper of the element utilities of {@code processingEnv}.
+     */
+    public static CachingElements of(ProcessingEnvironment processingEnv)
+    {
+        return new CachingElements(processingEnv.getElementUtils());
+    }
+
+    /**
+     * Forgets all remembered results. The hit and miss counts are kept.
+     */
+    public void clear()
+    {
+        packageElements.clear();
+        typeElements.clear();
+        allMembers.clear();
+        allAnnotationMirrors.clear();
+    }
+
+    /**
+     * Returns how many calls were answered from the cache.
+     */
+    public long hitCount()
+    {
+        return hitCount;
+    }
+
+    /**
+     * Returns how many calls were delegated and then remembered.
+     */
+    public long missCount()
+    {
+        return missCount;
+    }
+
+    /**
+     * Returns the result for {@code key}, which may be null.
+     */
+    private <K, V> V get(Map<K, V> cache, K key, Function<K, V> compute)
+    {
+        V result = cache.get(key);
+        if (result == null && !cache.containsKey(key))
+        {
+            missCount++;
+            result = compute.apply(key);
+            cache.put(key, result);
+        } else
+        {
+            hitCount++;
+        }
+        return result;
+    }
+
+    @Override
+    public PackageElement getPackageElement(CharSequence name)
+    {
+        return get(packageElements, name.toString(), delegate::getPackageElement);
+    }
+
+    @Override
+    public TypeElement getTypeElement(CharSequence name)
+    {
+        return get(typeElements, name.toString(), delegate::getTypeElement);
+    }
+
+    @Override
+    public Map<? extends ExecutableElement, ? extends AnnotationValue> getElementValuesWithDefaults(
+            AnnotationMirror a)
+    {
+        return delegate.getElementValuesWithDefaults(a);
+    }
+
+    @Override
+    public String getDocComment(Element e)
+    {
+        return delegate.getDocComment(e);
+    }
+
+    @Override
+    public boolean isDeprecated(Element e)
+    {
+        return delegate.isDeprecated(e);
+    }
+
+    @Override
+    public Name getBinaryName(TypeElement type)
+    {
+        return delegate.getBinaryName(type);
+    }
+
+    @Override
+    public PackageElement getPackageOf(Element type)
+    {
+        return delegate.getPackageOf(type);
+    }
+
+    @Override
+    public List<? extends Element> getAllMembers(TypeElement type)
+    {
+        return get(allMembers, checkNotNull(type, "type == null"), delegate::getAllMembers);
+    }
+
+    @Override
+    public List<? extends AnnotationMirror> getAllAnnotationMirrors(Element e)
+    {
+        return get(allAnnotationMirrors, checkNotNull(e, "e == null"),
+                delegate::getAllAnnotationMirrors);
+    }
+
+    @Override
+    public boolean hides(Element hider, Element hidden)
+    {
+        return delegate.hides(hider, hidden);
+    }
+
+    @Override
+    public boolean overrides(ExecutableElement overrider, ExecutableElement overridden,
+                             TypeElement type)
+    {
+        return delegate.overrides(overrider, overridden, type);
+    }
+
+    @Override
+    public String getConstantExpression(Object value)
+    {
+        return delegate.getConstantExpression(value);
+    }
+
+    @Override
+    public void printElements(Writer w, Element... elements)
+    {
+        delegate.printElements(w, elements);
+    }
+
+    @Override
+    public Name getName(CharSequence cs)
+    {
+        return delegate.getName(cs);
+    }
+
+    @Override
+    public boolean isFunctionalInterface(TypeElement type)
+    {
+        return delegate.isFunctionalInterface(type);
+    }
+
+}
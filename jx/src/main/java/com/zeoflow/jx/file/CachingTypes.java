@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2021 ZeoFlow SRL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zeoflow.jx.file;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.NoType;
+import javax.lang.model.type.NullType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.Types;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import static com.zeoflow.jx.file.Util.checkNotNull;
+
+/**
+ * A {@link Types} that remembers the results of {@link #isSameType}, {@link #isSubtype}, {@link
+ * #isAssignable}, {@link #directSupertypes}, {@link #erasure} and {@link #asMemberOf}, and
+ * delegates everything else. Arguments are compared by identity, which is how processors usually
+ * pass the mirrors they get from elements.
+ *
+ * <p>Mirrors are only valid for a single processing round, so call {@link #clear} when a round
+ * starts, or create a new instance. This class isn't thread-safe.
+ */
+public final class CachingTypes implements Types
+{
+
+    private final Types delegate;
+    private final Map<TypeMirror, Map<TypeMirror, Boolean>> sameTypes = new IdentityHashMap<>();
+    private final Map<TypeMirror, Map<TypeMirror, Boolean>> subtypes = new IdentityHashMap<>();
+    private final Map<TypeMirror, Map<TypeMirror, Boolean>> assignables = new IdentityHashMap<>();
+    private final Map<TypeMirror, List<? extends TypeMirror>> directSupertypes =
+            new IdentityHashMap<>();
+    private final Map<TypeMirror, TypeMirror> erasures = new IdentityHashMap<>();
+    private final Map<DeclaredType, Map<Element, TypeMirror>> memberTypes = new IdentityHashMap<>();
+    private long hitCount;
+    private long missCount;
+
+    public CachingTypes(Types delegate)
+    {
+        this.delegate = checkNotNull(delegate, "delegate == null");
+    }
+
+    /**
+     * Returns a caching wrapper of the type utilities of {@code processingEnv}.
+     */
+    public static CachingTypes of(ProcessingEnvironment processingEnv)
+    {
+        return new CachingTypes(processingEnv.getTypeUtils());
+    }
+
+    /**
+     * Forgets all remembered results. The hit and miss counts are kept.
+     */
+    public void clear()
+    {
+        sameTypes.clear();
+        subtypes.clear();
+        assignables.clear();
+        directSupertypes.clear();
+        erasures.clear();
+        memberTypes.clear();
+    }
+
+    /**
+     * Returns how many calls were answered from the cache.
+     */
+    public long hitCount()
+    {
+        return hitCount;
+    }
+
+    /**
+     * Returns how many calls were delegated and then remembered.
+     */
+    public long missCount()
+    {
+        return missCount;
+    }
+
+    private <K, V> V get(Map<K, V> cache, K key, Function<K, V> compute)
+    {
+        V result = cache.get(key);
+        if (result == null)
+        {
+            missCount++;
+            result = compute.apply(key);
+            cache.put(key, result);
+        } else
+        {
+            hitCount++;
+        }
+        return result;
+    }
+
+    private <K1, K2, V> V get(Map<K1, Map<K2, V>> cache, K1 key1, K2 key2,
+                              BiFunction<K1, K2, V> compute)
+    {
+        Map<K2, V> results = cache.computeIfAbsent(key1, k -> new IdentityHashMap<>());
+        return get(results, key2, k -> compute.apply(key1, k));
+    }
+
+    @Override
+    public Element asElement(TypeMirror t)
+    {
+        return delegate.asElement(t);
+    }
+
+    @Override
+    public boolean isSameType(TypeMirror t1, TypeMirror t2)
+    {
+        return get(sameTypes, t1, t2, delegate::isSameType);
+    }
+
+    @Override
+    public boolean isSubtype(TypeMirror t1, TypeMirror t2)
+    {
+        return get(subtypes, t1, t2, delegate::isSubtype);
+    }
+
+    @Override
+    public boolean isAssignable(TypeMirror t1, TypeMirror t2)
+    {
+        return get(assignables, t1, t2, delegate::isAssignable);
+    }
+
+    @Override
+    public boolean contains(TypeMirror t1, TypeMirror t2)
+    {
+        return delegate.contains(t1, t2);
+    }
+
+    @Override
+    public boolean isSubsignature(ExecutableType m1, ExecutableType m2)
+    {
+        return delegate.isSubsignature(m1, m2);
+    }
+
+    @Override
+    public List<? extends TypeMirror> directSupertypes(TypeMirror t)
+    {
+        return get(directSupertypes, t, delegate::directSupertypes);
+    }
+
+    @Override
+    public TypeMirror erasure(TypeMirror t)
+    {
+        return get(erasures, t, delegate::erasure);
+    }
+
+    @Override
+    public TypeElement boxedClass(PrimitiveType p)
+    {
+        return delegate.boxedClass(p);
+    }
+
+    @Override
+    public PrimitiveType unboxedType(TypeMirror t)
+    {
+        return delegate.unboxedType(t);
+    }
+
+    @Override
+    public TypeMirror capture(TypeMirror t)
+    {
+        return delegate.capture(t);
+    }
+
+    @Override
+    public PrimitiveType getPrimitiveType(TypeKind kind)
+    {
+        return delegate.getPrimitiveType(kind);
+    }
+
+    @Override
+    public NullType getNullType()
+    {
+        return delegate.getNullType();
+    }
+
+    @Override
+    public NoType getNoType(TypeKind kind)
+    {
+        return delegate.getNoType(kind);
+    }
+
+    @Override
+    public ArrayType getArrayType(TypeMirror componentType)
+    {
+        return delegate.getArrayType(componentType);
+    }
+
+    @Override
+    public WildcardType getWildcardType(TypeMirror extendsBound, TypeMirror superBound)
+    {
+        return delegate.getWildcardType(extendsBound, superBound);
+    }
+
+    @Override
+    public DeclaredType getDeclaredType(TypeElement typeElem, TypeMirror... typeArgs)
+    {
+        return delegate.getDeclaredType(typeElem, typeArgs);
+    }
+
+    @Override
+    public DeclaredType getDeclaredType(DeclaredType containing, TypeElement typeElem,
+                                        TypeMirror... typeArgs)
+    {
+        return delegate.getDeclaredType(containing, typeElem, typeArgs);
+    }
+
+    @Override
+    public TypeMirror asMemberOf(DeclaredType containing, Element element)
+    {
+        return get(memberTypes, containing, element, delegate::asMemberOf);
+    }
+
+}
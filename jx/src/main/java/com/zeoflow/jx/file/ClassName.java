@@ -27,6 +27,8 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * A fully-qualified class name for top-level and member classes.
@@ -38,7 +40,8 @@ public final class ClassName extends TypeName implements Comparable<ClassName>
      * The name representing the default Java package.
      */
     private static final String NO_PACKAGE = "";
-    public static final ClassName OBJECT = ClassName.get(Object.class);
+    private static volatile boolean interning;
+    public static final ClassName OBJECT = constant("java.lang", "Object");
     /**
      * The package name of this class, or "" if this is in the default package.
      */
@@ -58,17 +61,29 @@ public final class ClassName extends TypeName implements Comparable<ClassName>
      * The full class name like "java.util.Map.Entry".
      */
     final String canonicalName;
+    /**
+     * Interned classes nested in this one by simple name, or null if this class isn't interned.
+     */
+    private final ConcurrentMap<String, ClassName> internedNestedClasses;
     private List<String> simpleNames;
+    private List<ClassName> enclosingClasses;
 
     private ClassName(String packageName, ClassName enclosingClassName, String simpleName)
     {
-        this(packageName, enclosingClassName, simpleName, Collections.emptyList());
+        this(packageName, enclosingClassName, simpleName, Collections.emptyList(), false);
     }
 
     private ClassName(String packageName, ClassName enclosingClassName, String simpleName,
                       List<AnnotationSpec> annotations)
+    {
+        this(packageName, enclosingClassName, simpleName, annotations, false);
+    }
+
+    private ClassName(String packageName, ClassName enclosingClassName, String simpleName,
+                      List<AnnotationSpec> annotations, boolean interned)
     {
         super(annotations);
+        this.internedNestedClasses = interned ? new ConcurrentHashMap<>() : null;
         this.packageName = Objects.requireNonNull(packageName, "packageName == null");
         this.enclosingClassName = enclosingClassName;
         this.simpleName = simpleName;
@@ -82,7 +97,13 @@ public final class ClassName extends TypeName implements Comparable<ClassName>
         Util.checkArgument(!clazz.isPrimitive(), "primitive types cannot be represented as a ClassName");
         Util.checkArgument(!void.class.equals(clazz), "'void' type cannot be represented as a ClassName");
         Util.checkArgument(!clazz.isArray(), "array types cannot be represented as a ClassName");
-
+        return (ClassName) TypeNameCache.get(clazz);
+    }
+    /**
+     * Returns the class name of {@code clazz} without consulting the cache.
+     */
+    static ClassName create(Class<?> clazz)
+    {
         String anonymousSuffix = "";
         while (clazz.isAnonymousClass())
         {
@@ -97,13 +118,13 @@ public final class ClassName extends TypeName implements Comparable<ClassName>
             // Avoid unreliable Class.getPackage(). https://github.com/square/javapoet/issues/295
             int lastDot = clazz.getName().lastIndexOf('.');
             String packageName = (lastDot != -1) ? clazz.getName().substring(0, lastDot) : NO_PACKAGE;
-            return new ClassName(packageName, null, name);
+            return of(packageName, null, name);
         }
 
         return ClassName.get(clazz.getEnclosingClass()).nestedClass(name);
     }
     /**
-     * Returns a new {@link ClassName} instance for the given fully-qualified class name string. This
+     * Returns a {@link ClassName} instance for the given fully-qualified class name string. This
      * method assumes that the input is ASCII and follows typical Java style (lowercase package
      * names, UpperCamelCase class names) and may produce incorrect results or throw
      * {@link IllegalArgumentException} otherwise. For that reason, {@link #get(Class)} and
@@ -127,7 +148,7 @@ public final class ClassName extends TypeName implements Comparable<ClassName>
         {
             Util.checkArgument(!simpleName.isEmpty() && Character.isUpperCase(simpleName.codePointAt(0)),
                     "couldn't make a guess for %s", classNameString);
-            className = new ClassName(packageName, className, simpleName);
+            className = of(packageName, className, simpleName);
         }
 
         return className;
@@ -138,7 +159,7 @@ public final class ClassName extends TypeName implements Comparable<ClassName>
      */
     public static ClassName get(String packageName, String simpleName, String... simpleNames)
     {
-        ClassName className = new ClassName(packageName, null, simpleName);
+        ClassName className = of(packageName, null, simpleName);
         for (String name : simpleNames)
         {
             className = className.nestedClass(name);
@@ -158,7 +179,7 @@ public final class ClassName extends TypeName implements Comparable<ClassName>
             @Override
             public ClassName visitPackage(PackageElement packageElement, Void p)
             {
-                return new ClassName(packageElement.getQualifiedName().toString(), null, simpleName);
+                return of(packageElement.getQualifiedName().toString(), null, simpleName);
             }
 
             @Override
@@ -180,6 +201,74 @@ public final class ClassName extends TypeName implements Comparable<ClassName>
             }
         }, null);
     }
+    /**
+     * Enables or disables interning of class names without annotations. While enabled, the factory
+     * methods of this class return the same instance for the same class, which makes comparing
+     * class names an identity check. This includes {@link #OBJECT} and class names created before
+     * interning was enabled. Interned names are retained for the lifetime of this class, so this is
+     * best suited to processors that reference a bounded set of classes.
+     */
+    public static void setInterningEnabled(boolean enabled)
+    {
+        interning = enabled;
+    }
+    /**
+     * Returns the interned top-level class name for a constant, whether or not interning is
+     * enabled, so that constants are the instances interning returns.
+     */
+    static ClassName constant(String packageName, String simpleName)
+    {
+        return intern(packageName, null, simpleName);
+    }
+    /**
+     * Returns a class name without annotations, interned if interning is enabled and its enclosing
+     * class has no annotations.
+     */
+    private static ClassName of(String packageName, ClassName enclosingClassName, String simpleName)
+    {
+        if (!interning) return new ClassName(packageName, enclosingClassName, simpleName);
+        return intern(packageName, enclosingClassName, simpleName);
+    }
+    private static ClassName intern(String packageName, ClassName enclosingClassName,
+                                    String simpleName)
+    {
+        ConcurrentMap<String, ClassName> table;
+        if (enclosingClassName == null)
+        {
+            Util.checkNotNull(packageName, "packageName == null");
+            table = Interned.TOP_LEVEL.get(packageName);
+            if (table == null)
+            {
+                ConcurrentMap<String, ClassName> newTable = new ConcurrentHashMap<>();
+                table = Interned.TOP_LEVEL.putIfAbsent(packageName, newTable);
+                if (table == null) table = newTable;
+            }
+        } else
+        {
+            ClassName enclosing = enclosingClassName.interned();
+            table = enclosing.internedNestedClasses;
+            if (table == null) return new ClassName(packageName, enclosingClassName, simpleName);
+            enclosingClassName = enclosing;
+        }
+        ClassName result = table.get(simpleName);
+        if (result == null)
+        {
+            ClassName newClassName = new ClassName(packageName, enclosingClassName, simpleName,
+                    Collections.emptyList(), true);
+            result = table.putIfAbsent(simpleName, newClassName);
+            if (result == null) result = newClassName;
+        }
+        return result;
+    }
+    /**
+     * Returns the interned instance of this class name if interning is enabled and it has no
+     * annotations, or this otherwise.
+     */
+    ClassName interned()
+    {
+        if (!interning || internedNestedClasses != null || isAnnotated()) return this;
+        return intern(packageName, enclosingClassName, simpleName);
+    }
     @Override
     public ClassName annotated(List<AnnotationSpec> annotations)
     {
@@ -193,7 +282,7 @@ public final class ClassName extends TypeName implements Comparable<ClassName>
         ClassName resultEnclosingClassName = enclosingClassName != null
                 ? enclosingClassName.withoutAnnotations()
                 : null;
-        return new ClassName(packageName, resultEnclosingClassName, simpleName);
+        return of(packageName, resultEnclosingClassName, simpleName);
     }
     @Override
     public boolean isAnnotated()
@@ -259,15 +348,15 @@ public final class ClassName extends TypeName implements Comparable<ClassName>
      */
     public ClassName peerClass(String name)
     {
-        return new ClassName(packageName, enclosingClassName, name);
+        return of(packageName, enclosingClassName, name);
     }
     /**
-     * Returns a new {@link ClassName} instance for the specified {@code name} as nested inside this
+     * Returns a {@link ClassName} instance for the specified {@code name} as nested inside this
      * class.
      */
     public ClassName nestedClass(String name)
     {
-        return new ClassName(packageName, this, name);
+        return of(packageName, this, name);
     }
     /**
      * Returns the simple name of this class, like {@code "Entry"} for {@link Map.Entry}.
@@ -303,8 +392,25 @@ public final class ClassName extends TypeName implements Comparable<ClassName>
         return canonicalName;
     }
     @Override
+    boolean structurallyEquals(TypeName o)
+    {
+        ClassName that = (ClassName) o;
+        return simpleName.equals(that.simpleName)
+                && packageName.equals(that.packageName)
+                && annotations.equals(that.annotations)
+                && Objects.equals(enclosingClassName, that.enclosingClassName);
+    }
+    @Override
+    int structuralHashCode()
+    {
+        int result = canonicalName.hashCode();
+        result = 31 * result + annotations.hashCode();
+        return 31 * result + (enclosingClassName != null ? enclosingClassName.hashCode() : 0);
+    }
+    @Override
     public int compareTo(ClassName o)
     {
+        if (this == o) return 0;
         return canonicalName.compareTo(o.canonicalName);
     }
 
@@ -358,15 +464,33 @@ public final class ClassName extends TypeName implements Comparable<ClassName>
     /**
      * Returns all enclosing classes in this, outermost first.
      */
-    private List<ClassName> enclosingClasses()
+    List<ClassName> enclosingClasses()
     {
-        List<ClassName> result = new ArrayList<>();
-        for (ClassName c = this; c != null; c = c.enclosingClassName)
+        if (enclosingClasses != null)
         {
-            result.add(c);
+            return enclosingClasses;
         }
-        Collections.reverse(result);
-        return result;
+
+        if (enclosingClassName == null)
+        {
+            enclosingClasses = Collections.singletonList(this);
+        } else
+        {
+            List<ClassName> mutableClasses = new ArrayList<>(enclosingClassName.enclosingClasses());
+            mutableClasses.add(this);
+            enclosingClasses = Collections.unmodifiableList(mutableClasses);
+        }
+        return enclosingClasses;
+    }
+
+    /**
+     * Interned top-level class names by package name and simple name. This is held apart so that
+     * the constants of {@link TypeName} can be interned while this class is being initialized.
+     */
+    private static final class Interned
+    {
+        static final ConcurrentMap<String, ConcurrentMap<String, ClassName>> TOP_LEVEL =
+                new ConcurrentHashMap<>();
     }
 
 }
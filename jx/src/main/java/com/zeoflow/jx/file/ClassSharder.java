@@ -0,0 +1,579 @@
+/*
+ * Copyright (C) 2021 ZeoFlow SRL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zeoflow.jx.file;
+
+import javax.lang.model.element.Modifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Splits the static members of a class whose constant pool would be too large among companion
+ * classes, for {@link JavaFile#shard}. Sizes are estimated from the specs, not computed, so the
+ * limit should leave some room.
+ *
+ * <p>Static members that refer to each other by name move together, and members that the rest of
+ * the class refers to stay in it. Private static methods that don't refer to other static members
+ * are copied into every class that calls them instead. Names are found by scanning the emitted
+ * code, so a name that only appears in a comment or a string keeps members together too.
+ *
+ * <p>Non-private static fields never move: forwarding one costs the class as many entries as it
+ * saves, and a forwarded field can't be read where a constant is required. Moved non-private
+ * methods are forwarded by a delegate, whose entries are counted against the class. Classes with
+ * a superclass or superinterfaces aren't sharded, since moved code could refer to inherited static
+ * members by simple name, which don't resolve in a companion.
+ */
+final class ClassSharder
+{
+
+    /**
+     * Entries every class needs regardless of its members, like its name, its superclass and the
+     * attribute names.
+     */
+    private static final int CLASS_ENTRIES = 16;
+    /**
+     * Entries for a member's name, descriptor and reference.
+     */
+    private static final int MEMBER_ENTRIES = 4;
+    /**
+     * Entries for a delegate: its name and descriptor, and a reference to the method it calls.
+     */
+    private static final int DELEGATE_ENTRIES = MEMBER_ENTRIES + 2;
+
+    private final TypeSpec type;
+    private final int maxConstantPoolSize;
+    private final List<TypeSpec.Builder> companions = new ArrayList<>();
+    private final List<ClassName> companionNames = new ArrayList<>();
+    private final List<Set<String>> companionSharedMethods = new ArrayList<>();
+    private int companionSize;
+    /**
+     * The groups of names that must stay in one class, as indexes into {@link #parents}. Static
+     * members with the same name share a group, so overloads move together.
+     */
+    private final Map<String, Integer> groups = new HashMap<>();
+    private int[] parents = new int[16];
+    private boolean[] pinned = new boolean[16];
+    /**
+     * The private static methods that are copied into every class that calls them, by name.
+     */
+    private final Map<String, List<MethodSpec>> sharedMethods = new LinkedHashMap<>();
+    /**
+     * The names of the shared methods each static member calls, by the member's name.
+     */
+    private final Map<String, Set<String>> sharedCalls = new HashMap<>();
+
+    private ClassSharder(TypeSpec type, int maxConstantPoolSize)
+    {
+        this.type = type;
+        this.maxConstantPoolSize = maxConstantPoolSize;
+    }
+
+    /**
+     * Returns {@code type} if it fits in {@code maxConstantPoolSize}. Otherwise returns it without
+     * the static members that don't fit, followed by the companion classes holding them. Returns
+     * {@code type} unchanged if it can't be sharded or wouldn't fit anyway.
+     */
+    static List<TypeSpec> shard(String packageName, TypeSpec type, int maxConstantPoolSize)
+    {
+        if (estimateConstantPoolEntries(type) <= maxConstantPoolSize
+                || !type.superclass.equals(ClassName.OBJECT)
+                || !type.superinterfaces.isEmpty())
+        {
+            return Collections.singletonList(type);
+        }
+        return new ClassSharder(type, maxConstantPoolSize).shard(packageName);
+    }
+
+    private List<TypeSpec> shard(String packageName)
+    {
+        groupMembers();
+
+        // Pinned groups stay in the main class. The others stay in order until it is full, then
+        // fill companions, unless their delegates would take as many entries as they free. A group
+        // is never split, even if it's too large for one companion.
+        int[] sizes = new int[groups.size()];
+        int[] delegateSizes = new int[groups.size()];
+        int mainSize = estimateConstantPoolEntries(type);
+        for (FieldSpec fieldSpec : type.fieldSpecs)
+        {
+            if (!fieldSpec.hasModifier(Modifier.STATIC)) continue;
+            int size = estimateConstantPoolEntries(fieldSpec);
+            sizes[group(fieldSpec.name)] += size;
+            mainSize -= size;
+        }
+        for (MethodSpec methodSpec : type.methodSpecs)
+        {
+            if (!methodSpec.hasModifier(Modifier.STATIC)) continue;
+            int size = estimateConstantPoolEntries(methodSpec);
+            sizes[group(methodSpec.name)] += size;
+            mainSize -= size;
+            if (!methodSpec.hasModifier(Modifier.PRIVATE))
+            {
+                delegateSizes[group(methodSpec.name)] += DELEGATE_ENTRIES;
+            }
+        }
+        for (Map.Entry<String, Set<String>> entry : sharedCalls.entrySet())
+        {
+            for (String sharedMethod : entry.getValue())
+            {
+                for (MethodSpec methodSpec : sharedMethods.get(sharedMethod))
+                {
+                    sizes[group(entry.getKey())] += estimateConstantPoolEntries(methodSpec);
+                }
+            }
+        }
+        // Start from every group that's worth moving moved, leaving room for its delegates.
+        for (int i = 0; i < sizes.length; i++)
+        {
+            if (parents[i] != i) continue;
+            if (sizes[i] <= delegateSizes[i]) pinned[i] = true;
+            mainSize += pinned[i] ? sizes[i] : delegateSizes[i];
+        }
+        if (mainSize > maxConstantPoolSize) return Collections.singletonList(type);
+        Map<Integer, Integer> shards = new HashMap<>();
+        for (String name : staticMemberNames())
+        {
+            int group = group(name);
+            if (pinned[group] || shards.containsKey(group)) continue;
+            int keptSize = mainSize - delegateSizes[group] + sizes[group];
+            if (companions.isEmpty() && keptSize <= maxConstantPoolSize)
+            {
+                mainSize = keptSize;
+                pinned[group] = true;
+                continue;
+            }
+            shards.put(group, companionFor(packageName, sizes[group]));
+        }
+
+        // Non-private moved methods are forwarded, so callers outside the class still find them.
+        TypeSpec.Builder main = type.toBuilder();
+        main.fieldSpecs.clear();
+        main.methodSpecs.clear();
+        for (FieldSpec fieldSpec : type.fieldSpecs)
+        {
+            Integer shard = fieldSpec.hasModifier(Modifier.STATIC)
+                    ? shards.get(group(fieldSpec.name))
+                    : null;
+            if (shard == null)
+            {
+                main.addField(fieldSpec);
+                continue;
+            }
+            companions.get(shard).addField(fieldSpec);
+            addSharedMethods(shard, fieldSpec.name);
+        }
+        for (MethodSpec methodSpec : type.methodSpecs)
+        {
+            Integer shard = methodSpec.hasModifier(Modifier.STATIC)
+                    ? shards.get(group(methodSpec.name))
+                    : null;
+            if (shard == null)
+            {
+                main.addMethod(methodSpec);
+                continue;
+            }
+            companions.get(shard).addMethod(methodSpec);
+            addSharedMethods(shard, methodSpec.name);
+            if (!methodSpec.hasModifier(Modifier.PRIVATE))
+            {
+                main.addMethod(delegate(methodSpec, companionNames.get(shard)));
+            }
+        }
+
+        List<TypeSpec> result = new ArrayList<>();
+        result.add(main.build());
+        for (TypeSpec.Builder builder : companions)
+        {
+            result.add(builder.build());
+        }
+        return result;
+    }
+
+    /**
+     * Groups the static members by the names they refer to, and pins the groups that can't move:
+     * those the rest of the class refers to, those that refer to names only the class can resolve,
+     * and those with non-private fields.
+     */
+    private void groupMembers()
+    {
+        for (String name : staticMemberNames())
+        {
+            newGroup(name, false);
+        }
+        for (FieldSpec fieldSpec : type.fieldSpecs)
+        {
+            if (fieldSpec.hasModifier(Modifier.STATIC) && !fieldSpec.hasModifier(Modifier.PRIVATE))
+            {
+                pin(group(fieldSpec.name));
+            }
+        }
+
+        // Names that don't resolve in a companion: private instance members and constructors,
+        // member types, enum constants and the implicit enum methods.
+        for (FieldSpec fieldSpec : type.fieldSpecs)
+        {
+            if (fieldSpec.hasModifier(Modifier.PRIVATE) && !fieldSpec.hasModifier(Modifier.STATIC))
+            {
+                newGroup(fieldSpec.name, true);
+            }
+        }
+        for (MethodSpec methodSpec : type.methodSpecs)
+        {
+            if (methodSpec.hasModifier(Modifier.PRIVATE)
+                    && !methodSpec.hasModifier(Modifier.STATIC))
+            {
+                newGroup(methodSpec.isConstructor() ? type.name : methodSpec.name, true);
+            }
+        }
+        for (TypeSpec typeSpec : type.typeSpecs)
+        {
+            newGroup(typeSpec.name, true);
+        }
+        for (String enumConstant : type.enumConstants.keySet())
+        {
+            newGroup(enumConstant, true);
+        }
+        if (type.kind == TypeSpec.Kind.ENUM)
+        {
+            newGroup("values", true);
+            newGroup("valueOf", true);
+        }
+
+        findSharedMethods();
+        for (FieldSpec fieldSpec : type.fieldSpecs)
+        {
+            if (fieldSpec.hasModifier(Modifier.STATIC))
+            {
+                join(fieldSpec.name, fieldSpec.toString());
+            } else
+            {
+                pinReferences(fieldSpec.toString());
+            }
+        }
+        for (MethodSpec methodSpec : type.methodSpecs)
+        {
+            if (sharedMethods.containsKey(methodSpec.name))
+            {
+                pin(group(methodSpec.name));
+            } else if (methodSpec.hasModifier(Modifier.STATIC))
+            {
+                join(methodSpec.name, methodSpec.toString());
+            } else
+            {
+                pinReferences(methodSpec.toString());
+            }
+        }
+        for (AnnotationSpec annotationSpec : type.annotations)
+        {
+            pinReferences(annotationSpec.toString());
+        }
+        pinReferences(type.staticBlock.toString());
+        pinReferences(type.initializerBlock.toString());
+        for (TypeSpec enumConstant : type.enumConstants.values())
+        {
+            pinReferences(enumConstant);
+        }
+        for (TypeSpec typeSpec : type.typeSpecs)
+        {
+            pinReferences(typeSpec);
+        }
+    }
+
+    /**
+     * Returns the names of the static fields and methods, in the order they're declared.
+     */
+    private Set<String> staticMemberNames()
+    {
+        Set<String> result = new LinkedHashSet<>();
+        for (FieldSpec fieldSpec : type.fieldSpecs)
+        {
+            if (fieldSpec.hasModifier(Modifier.STATIC)) result.add(fieldSpec.name);
+        }
+        for (MethodSpec methodSpec : type.methodSpecs)
+        {
+            if (methodSpec.hasModifier(Modifier.STATIC)) result.add(methodSpec.name);
+        }
+        return result;
+    }
+
+    /**
+     * Finds the private static methods that only refer to their own name, if any, so that a copy
+     * works in any class.
+     */
+    private void findSharedMethods()
+    {
+        for (MethodSpec methodSpec : type.methodSpecs)
+        {
+            if (methodSpec.hasModifier(Modifier.STATIC) && methodSpec.hasModifier(Modifier.PRIVATE))
+            {
+                sharedMethods.computeIfAbsent(methodSpec.name, k -> new ArrayList<>())
+                        .add(methodSpec);
+            }
+        }
+        for (MethodSpec methodSpec : type.methodSpecs)
+        {
+            if (!methodSpec.hasModifier(Modifier.STATIC)
+                    || !methodSpec.hasModifier(Modifier.PRIVATE))
+            {
+                sharedMethods.remove(methodSpec.name);
+            }
+        }
+        for (FieldSpec fieldSpec : type.fieldSpecs)
+        {
+            sharedMethods.remove(fieldSpec.name);
+        }
+        sharedMethods.entrySet().removeIf(entry -> entry.getValue().stream()
+                .anyMatch(methodSpec -> !references(methodSpec.toString())
+                        .equals(Collections.singleton(methodSpec.name))));
+    }
+
+    /**
+     * Copies the shared methods that the member named {@code name} calls into the companion at
+     * {@code shard}, unless it has them already.
+     */
+    private void addSharedMethods(int shard, String name)
+    {
+        Set<String> calls = sharedCalls.get(name);
+        if (calls == null) return;
+        for (String call : calls)
+        {
+            if (!companionSharedMethods.get(shard).add(call)) continue;
+            for (MethodSpec methodSpec : sharedMethods.get(call))
+            {
+                companions.get(shard).addMethod(methodSpec);
+            }
+        }
+    }
+
+    private void newGroup(String name, boolean pin)
+    {
+        Integer group = groups.get(name);
+        if (group == null)
+        {
+            group = groups.size();
+            if (group == parents.length)
+            {
+                parents = Arrays.copyOf(parents, group * 2);
+                pinned = Arrays.copyOf(pinned, group * 2);
+            }
+            parents[group] = group;
+            groups.put(name, group);
+        }
+        if (pin) pin(group);
+    }
+
+    /**
+     * Returns the representative of the group of {@code name}.
+     */
+    private int group(String name)
+    {
+        return find(groups.get(name));
+    }
+
+    private int find(int group)
+    {
+        while (parents[group] != group)
+        {
+            parents[group] = parents[parents[group]];
+            group = parents[group];
+        }
+        return group;
+    }
+
+    private void pin(int group)
+    {
+        pinned[find(group)] = true;
+    }
+
+    /**
+     * Joins the group of {@code name} with the group of every name {@code code} refers to, other
+     * than shared methods.
+     */
+    private void join(String name, String code)
+    {
+        for (String reference : references(code))
+        {
+            if (sharedMethods.containsKey(reference))
+            {
+                sharedCalls.computeIfAbsent(name, k -> new LinkedHashSet<>()).add(reference);
+                continue;
+            }
+            int a = group(name);
+            int b = group(reference);
+            if (a == b) continue;
+            parents[b] = a;
+            pinned[a] |= pinned[b];
+        }
+    }
+
+    private void pinReferences(String code)
+    {
+        for (String reference : references(code))
+        {
+            pin(group(reference));
+        }
+    }
+
+    /**
+     * Pins the groups of the names that {@code typeSpec} refers to. Its parts are scanned one by
+     * one, since anonymous types can't be emitted on their own.
+     */
+    private void pinReferences(TypeSpec typeSpec)
+    {
+        if (typeSpec.anonymousTypeArguments != null)
+        {
+            pinReferences(typeSpec.anonymousTypeArguments.toString());
+        }
+        for (AnnotationSpec annotationSpec : typeSpec.annotations)
+        {
+            pinReferences(annotationSpec.toString());
+        }
+        for (TypeSpec enumConstant : typeSpec.enumConstants.values())
+        {
+            pinReferences(enumConstant);
+        }
+        for (FieldSpec fieldSpec : typeSpec.fieldSpecs)
+        {
+            pinReferences(fieldSpec.toString());
+        }
+        pinReferences(typeSpec.staticBlock.toString());
+        pinReferences(typeSpec.initializerBlock.toString());
+        for (MethodSpec methodSpec : typeSpec.methodSpecs)
+        {
+            pinReferences(methodSpec.toString());
+        }
+        for (TypeSpec nested : typeSpec.typeSpecs)
+        {
+            pinReferences(nested);
+        }
+    }
+
+    /**
+     * Returns the identifiers in {@code code} that are the names of groups.
+     */
+    private Set<String> references(String code)
+    {
+        Set<String> result = new LinkedHashSet<>();
+        for (int i = 0, length = code.length(); i < length; )
+        {
+            if (!Character.isJavaIdentifierStart(code.charAt(i)))
+            {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (++i < length && Character.isJavaIdentifierPart(code.charAt(i)))
+            {
+            }
+            String name = code.substring(start, i);
+            if (groups.containsKey(name)) result.add(name);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the index of the companion to add a group of {@code size} entries to, starting a new
+     * one if the current one is full.
+     */
+    private int companionFor(String packageName, int size)
+    {
+        if (companions.isEmpty() || (companionSize > CLASS_ENTRIES
+                && companionSize + size > maxConstantPoolSize))
+        {
+            ClassName companionName =
+                    ClassName.get(packageName, type.name + "_Shard" + (companions.size() + 1));
+            TypeSpec.Builder companion = TypeSpec.classBuilder(companionName)
+                    .addModifiers(Modifier.FINAL)
+                    .addMethod(MethodSpec.constructorBuilder()
+                            .addModifiers(Modifier.PRIVATE)
+                            .build());
+            companion.originatingElements.addAll(type.originatingElements);
+            companions.add(companion);
+            companionNames.add(companionName);
+            companionSharedMethods.add(new HashSet<>());
+            companionSize = CLASS_ENTRIES;
+        }
+        companionSize += size;
+        return companions.size() - 1;
+    }
+
+    /**
+     * Returns a method with the signature of {@code methodSpec} that calls it on {@code owner}.
+     */
+    private static MethodSpec delegate(MethodSpec methodSpec, ClassName owner)
+    {
+        CodeBlock arguments = methodSpec.parameters.stream()
+                .map(parameter -> CodeBlock.of("$N", parameter))
+                .collect(CodeBlock.joining(", "));
+        MethodSpec.Builder result = MethodSpec.methodBuilder(methodSpec.name)
+                .addJavadoc(methodSpec.javadoc)
+                .addAnnotations(methodSpec.annotations)
+                .addModifiers(methodSpec.modifiers)
+                .addTypeVariables(methodSpec.typeVariables)
+                .returns(methodSpec.returnType)
+                .addParameters(methodSpec.parameters)
+                .varargs(methodSpec.varargs)
+                .addExceptions(methodSpec.exceptions);
+        if (methodSpec.returnType.equals(TypeName.VOID))
+        {
+            return result.addStatement("$T.$N($L)", owner, methodSpec, arguments).build();
+        }
+        return result.addStatement("return $T.$N($L)", owner, methodSpec, arguments).build();
+    }
+
+    private static int estimateConstantPoolEntries(TypeSpec type)
+    {
+        int result = CLASS_ENTRIES + 2 * type.superinterfaces.size() + 2 * type.typeSpecs.size()
+                + 2 * type.annotations.size();
+        for (TypeSpec enumConstant : type.enumConstants.values())
+        {
+            result += MEMBER_ENTRIES
+                    + enumConstant.anonymousTypeArguments.estimateConstantPoolEntries();
+        }
+        for (FieldSpec fieldSpec : type.fieldSpecs)
+        {
+            result += estimateConstantPoolEntries(fieldSpec);
+        }
+        for (MethodSpec methodSpec : type.methodSpecs)
+        {
+            result += estimateConstantPoolEntries(methodSpec);
+        }
+        return result + type.staticBlock.estimateConstantPoolEntries()
+                + type.initializerBlock.estimateConstantPoolEntries();
+    }
+
+    private static int estimateConstantPoolEntries(FieldSpec fieldSpec)
+    {
+        return MEMBER_ENTRIES + 2 * fieldSpec.annotations.size()
+                + fieldSpec.initializer.estimateConstantPoolEntries();
+    }
+
+    private static int estimateConstantPoolEntries(MethodSpec methodSpec)
+    {
+        return MEMBER_ENTRIES + 2 * methodSpec.annotations.size() + 2 * methodSpec.exceptions.size()
+                + methodSpec.parameters.size() + methodSpec.code.estimateConstantPoolEntries();
+    }
+
+}
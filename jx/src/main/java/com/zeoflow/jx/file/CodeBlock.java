@@ -21,11 +21,14 @@ import javax.lang.model.type.TypeMirror;
 
 import java.io.IOException;
 import java.lang.reflect.Type;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.NoSuchElementException;
 import java.util.stream.Collector;
 import java.util.stream.StreamSupport;
 
@@ -67,20 +70,107 @@ import static com.zeoflow.jx.file.Util.checkArgument;
 public final class CodeBlock
 {
 
-    private static final Pattern NAMED_ARGUMENT =
-            Pattern.compile("\\$(?<argumentName>[\\w_]+):(?<typeChar>[\\w]).*");
-    private static final Pattern LOWERCASE = Pattern.compile("[a-z]+[\\w_]*");
+    // Opcodes of the compiled form, one per format part.
+    static final byte TEXT = 0;
+    static final byte LITERAL = 1;
+    static final byte NAME = 2;
+    static final byte STRING = 3;
+    static final byte TYPE = 4;
+    static final byte DOLLAR = 5;
+    static final byte INDENT = 6;
+    static final byte UNINDENT = 7;
+    static final byte STATEMENT_BEGIN = 8;
+    static final byte STATEMENT_END = 9;
+    static final byte WRAPPING_SPACE = 10;
+    static final byte ZERO_WIDTH_SPACE = 11;
+
+    private static final byte[] NO_OPCODES = new byte[0];
+    private static final String[] NO_TEXTS = new String[0];
+    private static final Object[] NO_ARGS = new Object[0];
 
     /**
-     * A heterogeneous list containing string literals and value placeholders.
+     * One opcode per format part. Each {@link #TEXT} opcode takes the next string from {@link
+     * #texts}, and each of {@link #LITERAL}, {@link #NAME}, {@link #STRING} and {@link #TYPE} takes
+     * the next value from {@link #args}. Empty in composite blocks.
      */
-    final List<String> formatParts;
-    final List<Object> args;
+    final byte[] opcodes;
+    final String[] texts;
+    final Object[] args;
+    /**
+     * The non-empty blocks this block is the concatenation of, or null if this block holds its
+     * format parts directly. Children are shared, not copied, so appending and joining blocks
+     * doesn't copy their parts.
+     */
+    final CodeBlock[] children;
+    private CodeBlock flattened;
+    private int cachedHashCode;
+
+    private CodeBlock(List<String> formatParts, List<Object> args)
+    {
+        int size = formatParts.size();
+        this.opcodes = new byte[size];
+        int textCount = 0;
+        for (int i = 0; i < size; i++)
+        {
+            byte opcode = opcode(formatParts.get(i));
+            opcodes[i] = opcode;
+            if (opcode == TEXT) textCount++;
+        }
+        this.texts = new String[textCount];
+        for (int i = 0, t = 0; i < size; i++)
+        {
+            if (opcodes[i] == TEXT) texts[t++] = formatParts.get(i);
+        }
+        this.args = args.toArray();
+        this.children = null;
+    }
+
+    private CodeBlock(byte[] opcodes, String[] texts, Object[] args)
+    {
+        this.opcodes = opcodes;
+        this.texts = texts;
+        this.args = args;
+        this.children = null;
+    }
 
-    private CodeBlock(Builder builder)
+    private CodeBlock(CodeBlock[] children)
     {
-        this.formatParts = Util.immutableList(builder.formatParts);
-        this.args = Util.immutableList(builder.args);
+        this.opcodes = NO_OPCODES;
+        this.texts = NO_TEXTS;
+        this.args = NO_ARGS;
+        this.children = children;
+    }
+
+    private static byte opcode(String part)
+    {
+        if (part.length() != 2 || part.charAt(0) != '$') return TEXT;
+        switch (part.charAt(1))
+        {
+            case 'L':
+                return LITERAL;
+            case 'N':
+                return NAME;
+            case 'S':
+                return STRING;
+            case 'T':
+                return TYPE;
+            case '$':
+                return DOLLAR;
+            case '>':
+                return INDENT;
+            case '<':
+                return UNINDENT;
+            case '[':
+                return STATEMENT_BEGIN;
+            case ']':
+                return STATEMENT_END;
+            case 'W':
+                return WRAPPING_SPACE;
+            case 'Z':
+                return ZERO_WIDTH_SPACE;
+            default:
+                throw new AssertionError(part);
+        }
     }
     public static CodeBlock of(String format, Object... args)
     {
@@ -95,6 +185,14 @@ public final class CodeBlock
     {
         return StreamSupport.stream(codeBlocks.spliterator(), false).collect(joining(separator));
     }
+    /**
+     * Like {@link #join(Iterable, String)}, but collects {@code codeBlocks} with a parallel stream.
+     * The result is the same; this only pays off for many blocks.
+     */
+    public static CodeBlock parallelJoin(Iterable<CodeBlock> codeBlocks, String separator)
+    {
+        return StreamSupport.stream(codeBlocks.spliterator(), true).collect(joining(separator));
+    }
     /**
      * A {@link Collector} implementation that joins {@link CodeBlock} instances together into one
      * separated by {@code separator}. For example, joining {@code String s}, {@code Object o} and
@@ -103,10 +201,10 @@ public final class CodeBlock
     public static Collector<CodeBlock, ?, CodeBlock> joining(String separator)
     {
         return Collector.of(
-                () -> new CodeBlockJoiner(separator, builder()),
+                () -> new CodeBlockJoiner(separator),
                 CodeBlockJoiner::add,
                 CodeBlockJoiner::merge,
-                CodeBlockJoiner::join);
+                joiner -> joiner.join(null, null));
     }
     /**
      * A {@link Collector} implementation that joins {@link CodeBlock} instances together into one
@@ -116,16 +214,13 @@ public final class CodeBlock
     public static Collector<CodeBlock, ?, CodeBlock> joining(
             String separator, String prefix, String suffix)
     {
-        Builder builder = builder().add("$N", prefix);
+        CodeBlock prefixBlock = CodeBlock.of("$N", prefix);
+        CodeBlock suffixBlock = CodeBlock.of("$N", suffix);
         return Collector.of(
-                () -> new CodeBlockJoiner(separator, builder),
+                () -> new CodeBlockJoiner(separator),
                 CodeBlockJoiner::add,
                 CodeBlockJoiner::merge,
-                joiner ->
-                {
-                    builder.add(CodeBlock.of("$N", suffix));
-                    return joiner.join();
-                });
+                joiner -> joiner.join(prefixBlock, suffixBlock));
     }
     public static Builder builder()
     {
@@ -133,21 +228,373 @@ public final class CodeBlock
     }
     public boolean isEmpty()
     {
-        return formatParts.isEmpty();
+        return children == null && opcodes.length == 0;
     }
+    /**
+     * Returns a block with the same format parts as this one, held directly rather than in children.
+     */
+    private CodeBlock flat()
+    {
+        if (children == null) return this;
+        CodeBlock result = flattened;
+        if (result == null)
+        {
+            List<CodeBlock> leaves = new ArrayList<>();
+            for (Iterator<CodeBlock> i = leaves(); i.hasNext(); )
+            {
+                leaves.add(i.next());
+            }
+            int opcodeCount = 0;
+            int textCount = 0;
+            int argCount = 0;
+            for (CodeBlock leaf : leaves)
+            {
+                opcodeCount += leaf.opcodes.length;
+                textCount += leaf.texts.length;
+                argCount += leaf.args.length;
+            }
+            byte[] opcodes = new byte[opcodeCount];
+            String[] texts = new String[textCount];
+            Object[] args = new Object[argCount];
+            opcodeCount = textCount = argCount = 0;
+            for (CodeBlock leaf : leaves)
+            {
+                System.arraycopy(leaf.opcodes, 0, opcodes, opcodeCount, leaf.opcodes.length);
+                System.arraycopy(leaf.texts, 0, texts, textCount, leaf.texts.length);
+                System.arraycopy(leaf.args, 0, args, argCount, leaf.args.length);
+                opcodeCount += leaf.opcodes.length;
+                textCount += leaf.texts.length;
+                argCount += leaf.args.length;
+            }
+            result = new CodeBlock(opcodes, texts, args);
+            flattened = result;
+        }
+        return result;
+    }
+    /**
+     * Returns the blocks that hold this block's format parts directly, in order. Blocks may be
+     * nested arbitrarily deep, so this doesn't recurse.
+     */
+    Iterator<CodeBlock> leaves()
+    {
+        return new LeafIterator(this);
+    }
+    /**
+     * Code blocks are equal if they render the same code. Text, names, literals and strings are
+     * compared as the text they emit, however they were added; types and specs are compared
+     * structurally, since how they render depends on the file they're emitted in.
+     */
     @Override
     public boolean equals(Object o)
     {
         if (this == o) return true;
         if (o == null) return false;
         if (getClass() != o.getClass()) return false;
-        return toString().equals(o.toString());
+        CodeBlock that = (CodeBlock) o;
+        return hashCode() == that.hashCode() && tokens().equals(that.tokens());
     }
     @Override
     public int hashCode()
     {
-        return toString().hashCode();
+        int result = cachedHashCode;
+        if (result == 0)
+        {
+            result = tokens().hashCode();
+            cachedHashCode = result;
+        }
+        return result;
+    }
+    /**
+     * Returns the parts of this block as they render: runs of emitted text as strings, types and
+     * specs as themselves, and other opcodes as bytes. Nested code blocks are inlined.
+     */
+    private List<Object> tokens()
+    {
+        List<Object> tokens = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        addTokens(this, tokens, text);
+        addText(tokens, text);
+        return tokens;
+    }
+    private static void addTokens(CodeBlock block, List<Object> tokens, StringBuilder text)
+    {
+        for (Iterator<CodeBlock> i = block.leaves(); i.hasNext(); )
+        {
+            CodeBlock leaf = i.next();
+            int a = 0;
+            int t = 0;
+            for (byte opcode : leaf.opcodes)
+            {
+                switch (opcode)
+                {
+                    case TEXT:
+                        text.append(leaf.texts[t++]);
+                        break;
+                    case NAME:
+                        text.append(leaf.args[a++]);
+                        break;
+                    case DOLLAR:
+                        text.append('$');
+                        break;
+                    case LITERAL:
+                        Object literal = leaf.args[a++];
+                        if (literal instanceof CodeBlock)
+                        {
+                            addTokens((CodeBlock) literal, tokens, text);
+                        } else if (isSpec(literal))
+                        {
+                            addText(tokens, text);
+                            tokens.add(literal);
+                        } else
+                        {
+                            text.append(literal);
+                        }
+                        break;
+                    case STRING:
+                        String string = (String) leaf.args[a++];
+                        if (string == null)
+                        {
+                            text.append("null");
+                        } else if (string.indexOf('\n') == -1 && Util.fitsInStringConstant(string))
+                        {
+                            text.append('"');
+                            for (int c = 0; c < string.length(); c++)
+                            {
+                                Util.appendStringLiteralCharacter(text, string.charAt(c));
+                            }
+                            text.append('"');
+                        } else
+                        {
+                            // Line breaks and long strings are emitted with indentation.
+                            addText(tokens, text);
+                            tokens.add(STRING);
+                            tokens.add(string);
+                        }
+                        break;
+                    case TYPE:
+                        addText(tokens, text);
+                        tokens.add(leaf.args[a++]);
+                        break;
+                    default:
+                        addText(tokens, text);
+                        tokens.add(opcode);
+                        break;
+                }
+            }
+        }
+    }
+    /**
+     * Adds the text run in {@code text}, if any, to {@code tokens}, and starts a new one.
+     */
+    private static void addText(List<Object> tokens, StringBuilder text)
+    {
+        if (text.length() == 0) return;
+        tokens.add(text.toString());
+        text.setLength(0);
+    }
+    private static boolean isSpec(Object o)
+    {
+        return o instanceof TypeName
+                || o instanceof TypeSpec
+                || o instanceof MethodSpec
+                || o instanceof FieldSpec
+                || o instanceof ParameterSpec
+                || o instanceof AnnotationSpec;
+    }
+
+    /**
+     * Returns a rough estimate of the bytes of bytecode javac compiles this block to: a byte for
+     * every character of code text and literals, and a few bytes for each string, name and type.
+     * Nested code blocks are estimated recursively. Typical code compiles to less than this, so
+     * blocks split using the estimate err on the small side.
+     */
+    int estimateBytecodeSize()
+    {
+        int result = 0;
+        for (Iterator<CodeBlock> i = leaves(); i.hasNext(); )
+        {
+            CodeBlock leaf = i.next();
+            for (int p = 0, t = 0, a = 0; p < leaf.opcodes.length; p++)
+            {
+                byte opcode = leaf.opcodes[p];
+                result += estimateBytecodeSize(opcode,
+                        opcode == TEXT ? leaf.texts[t++] : null,
+                        takesArgument(opcode) ? leaf.args[a++] : null);
+            }
+        }
+        return result;
+    }
+
+    private static int estimateBytecodeSize(byte opcode, String text, Object arg)
+    {
+        switch (opcode)
+        {
+            case TEXT:
+                return text.length();
+            case LITERAL:
+                if (arg instanceof CodeBlock) return ((CodeBlock) arg).estimateBytecodeSize();
+                return String.valueOf(arg).length();
+            case STRING:
+                return 3; // ldc_w.
+            case NAME:
+            case TYPE:
+                return 3;
+            case STATEMENT_END:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Returns a rough estimate of the constant pool entries javac adds for this block: two for each
+     * string and type, three for each name and for each call in the code text, and one for each
+     * other literal. Entries shared with other code are counted again, so this errs on the large
+     * side.
+     */
+    int estimateConstantPoolEntries()
+    {
+        int result = 0;
+        for (Iterator<CodeBlock> i = leaves(); i.hasNext(); )
+        {
+            CodeBlock leaf = i.next();
+            for (int p = 0, t = 0, a = 0; p < leaf.opcodes.length; p++)
+            {
+                byte opcode = leaf.opcodes[p];
+                result += estimateConstantPoolEntries(opcode,
+                        opcode == TEXT ? leaf.texts[t++] : null,
+                        takesArgument(opcode) ? leaf.args[a++] : null);
+            }
+        }
+        return result;
+    }
+
+    private static int estimateConstantPoolEntries(byte opcode, String text, Object arg)
+    {
+        switch (opcode)
+        {
+            case TEXT:
+                int result = 0;
+                for (int c = text.indexOf('('); c != -1; c = text.indexOf('(', c + 1))
+                {
+                    result += 3; // Methodref, NameAndType and name.
+                }
+                return result;
+            case LITERAL:
+                if (arg instanceof CodeBlock) return ((CodeBlock) arg).estimateConstantPoolEntries();
+                return 1;
+            case STRING:
+            case TYPE:
+                return 2;
+            case NAME:
+                return 3;
+            default:
+                return 0;
+        }
+    }
+
+    private static boolean takesArgument(byte opcode)
+    {
+        return opcode == LITERAL || opcode == NAME || opcode == STRING || opcode == TYPE;
+    }
+
+    /**
+     * Splits this block into blocks whose estimated bytecode is at most {@code maxBytecodeSize},
+     * that emit the same code when emitted in order. Blocks are only split between top-level lines:
+     * never inside a statement or an indented block such as the body of a control flow. A single
+     * line that is too large on its own isn't split.
+     */
+    List<CodeBlock> split(int maxBytecodeSize)
+    {
+        if (estimateBytecodeSize() <= maxBytecodeSize) return Collections.singletonList(this);
+
+        CodeBlock flat = flat();
+        List<CodeBlock> result = new ArrayList<>();
+        int depth = 0;
+        boolean inStatement = false;
+        boolean lineStart = true;
+        // The chunk being collected starts at chunkStart, and the line being collected at
+        // lineStartPart.
+        int chunkStart = 0, chunkTextStart = 0, chunkArgStart = 0, chunkSize = 0;
+        int lineStartPart = 0, lineTextStart = 0, lineArgStart = 0, lineSize = 0;
+        int t = 0;
+        int a = 0;
+        for (int p = 0; p <= flat.opcodes.length; p++)
+        {
+            if (p == flat.opcodes.length
+                    || (depth == 0 && !inStatement && lineStart && p > lineStartPart
+                    && startsContent(flat.opcodes[p])))
+            {
+                // The line that ends here goes to a new chunk if it makes the current one too large.
+                if (chunkSize > 0 && chunkSize + lineSize > maxBytecodeSize)
+                {
+                    result.add(flat.slice(chunkStart, lineStartPart, chunkTextStart, lineTextStart,
+                            chunkArgStart, lineArgStart));
+                    chunkStart = lineStartPart;
+                    chunkTextStart = lineTextStart;
+                    chunkArgStart = lineArgStart;
+                    chunkSize = 0;
+                }
+                chunkSize += lineSize;
+                lineStartPart = p;
+                lineTextStart = t;
+                lineArgStart = a;
+                lineSize = 0;
+                if (p == flat.opcodes.length) break;
+            }
+
+            byte opcode = flat.opcodes[p];
+            String text = opcode == TEXT ? flat.texts[t++] : null;
+            Object arg = takesArgument(opcode) ? flat.args[a++] : null;
+            lineSize += estimateBytecodeSize(opcode, text, arg);
+            switch (opcode)
+            {
+                case TEXT:
+                    lineStart = text.endsWith("\n");
+                    break;
+                case INDENT:
+                    depth++;
+                    lineStart = false;
+                    break;
+                case UNINDENT:
+                    depth--;
+                    lineStart = false;
+                    break;
+                case STATEMENT_BEGIN:
+                    inStatement = true;
+                    break;
+                case STATEMENT_END:
+                    inStatement = false;
+                    break;
+                case WRAPPING_SPACE:
+                case ZERO_WIDTH_SPACE:
+                    break;
+                default:
+                    lineStart = false;
+                    break;
+            }
+        }
+        result.add(flat.slice(chunkStart, flat.opcodes.length, chunkTextStart, flat.texts.length,
+                chunkArgStart, flat.args.length));
+        return result;
     }
+
+    /**
+     * Returns true if {@code opcode} emits code or starts a statement. Lines are only split before
+     * these, so that indentation and statement markers stay with the code they apply to.
+     */
+    private static boolean startsContent(byte opcode)
+    {
+        return opcode == STATEMENT_BEGIN || opcode == TEXT || opcode == DOLLAR || takesArgument(opcode);
+    }
+
+    private CodeBlock slice(int from, int to, int textFrom, int textTo, int argFrom, int argTo)
+    {
+        return new CodeBlock(Arrays.copyOfRange(opcodes, from, to),
+                Arrays.copyOfRange(texts, textFrom, textTo),
+                Arrays.copyOfRange(args, argFrom, argTo));
+    }
+
     @Override
     public String toString()
     {
@@ -163,17 +610,21 @@ public final class CodeBlock
     }
     public Builder toBuilder()
     {
-        Builder builder = new Builder();
-        builder.formatParts.addAll(formatParts);
-        builder.args.addAll(args);
-        return builder;
+        return new Builder().add(this);
     }
 
     public static final class Builder
     {
 
+        /**
+         * Format parts and arguments added since the last block in {@link #blocks}.
+         */
         final List<String> formatParts = new ArrayList<>();
         final List<Object> args = new ArrayList<>();
+        /**
+         * Blocks that precede {@link #formatParts}, either added or sealed from earlier parts.
+         */
+        private final List<CodeBlock> blocks = new ArrayList<>();
 
         private Builder()
         {
@@ -181,7 +632,7 @@ public final class CodeBlock
 
         public boolean isEmpty()
         {
-            return formatParts.isEmpty();
+            return formatParts.isEmpty() && blocks.isEmpty();
         }
 
         /**
@@ -197,54 +648,26 @@ public final class CodeBlock
          */
         public Builder addNamed(String format, Map<String, ?> arguments)
         {
-            int p = 0;
-
             for (String argument : arguments.keySet())
             {
-                checkArgument(LOWERCASE.matcher(argument).matches(),
+                checkArgument(FormatTemplate.isArgumentName(argument),
                         "argument '%s' must start with a lowercase character", argument);
             }
 
-            while (p < format.length())
+            FormatTemplate template = FormatTemplate.named(format);
+            for (int i = 0; i < template.parts.length; i++)
             {
-                int nextP = format.indexOf("$", p);
-                if (nextP == -1)
+                char c = template.argumentTypes[i];
+                if (c != 0)
                 {
-                    formatParts.add(format.substring(p));
-                    break;
-                }
-
-                if (p != nextP)
-                {
-                    formatParts.add(format.substring(p, nextP));
-                    p = nextP;
-                }
-
-                Matcher matcher = null;
-                int colon = format.indexOf(':', p);
-                if (colon != -1)
-                {
-                    int endIndex = Math.min(colon + 2, format.length());
-                    matcher = NAMED_ARGUMENT.matcher(format.substring(p, endIndex));
-                }
-                if (matcher != null && matcher.lookingAt())
-                {
-                    String argumentName = matcher.group("argumentName");
+                    String argumentName = template.argumentNames[i];
                     checkArgument(arguments.containsKey(argumentName), "Missing named argument for $%s",
                             argumentName);
-                    char formatChar = matcher.group("typeChar").charAt(0);
-                    addArgument(format, formatChar, arguments.get(argumentName));
-                    formatParts.add("$" + formatChar);
-                    p += matcher.regionEnd();
-                } else
-                {
-                    checkArgument(p < format.length() - 1, "dangling $ at end");
-                    checkArgument(isNoArgPlaceholder(format.charAt(p + 1)),
-                            "unknown format $%s at %s in '%s'", format.charAt(p + 1), p + 1, format);
-                    formatParts.add(format.substring(p, p + 2));
-                    p += 2;
+                    addArgument(format, c, arguments.get(argumentName));
                 }
+                formatParts.add(template.parts[i]);
             }
+            checkArgument(template.error == null, "%s", template.error);
 
             return this;
         }
@@ -266,45 +689,21 @@ public final class CodeBlock
             boolean hasIndexed = false;
 
             int relativeParameterCount = 0;
-            int[] indexedParameterCount = new int[args.length];
+            FormatTemplate template = FormatTemplate.positional(format);
+            int[] indexedParameterCount = template.hasIndexed ? new int[args.length] : null;
 
-            for (int p = 0; p < format.length(); )
+            for (int i = 0; i < template.parts.length; i++)
             {
-                if (format.charAt(p) != '$')
-                {
-                    int nextP = format.indexOf('$', p + 1);
-                    if (nextP == -1) nextP = format.length();
-                    formatParts.add(format.substring(p, nextP));
-                    p = nextP;
-                    continue;
-                }
-
-                p++; // '$'.
-
-                // Consume zero or more digits, leaving 'c' as the first non-digit char after the '$'.
-                int indexStart = p;
-                char c;
-                do
-                {
-                    checkArgument(p < format.length(), "dangling format characters in '%s'", format);
-                    c = format.charAt(p++);
-                } while (c >= '0' && c <= '9');
-                int indexEnd = p - 1;
-
-                // If 'c' doesn't take an argument, we're done.
-                if (isNoArgPlaceholder(c))
+                char c = template.argumentTypes[i];
+                if (c == 0)
                 {
-                    checkArgument(
-                            indexStart == indexEnd, "$$, $>, $<, $[, $], $W, and $Z may not have an index");
-                    formatParts.add("$" + c);
+                    formatParts.add(template.parts[i]);
                     continue;
                 }
 
-                // Find either the indexed argument, or the relative argument. (0-based).
-                int index;
-                if (indexStart < indexEnd)
+                int index = template.argumentIndexes[i];
+                if (template.indexed[i])
                 {
-                    index = Integer.parseInt(format.substring(indexStart, indexEnd)) - 1;
                     hasIndexed = true;
                     if (args.length > 0)
                     {
@@ -312,20 +711,20 @@ public final class CodeBlock
                     }
                 } else
                 {
-                    index = relativeParameterCount;
                     hasRelative = true;
                     relativeParameterCount++;
                 }
 
                 checkArgument(index >= 0 && index < args.length,
                         "index %d for '%s' not in range (received %s arguments)",
-                        index + 1, format.substring(indexStart - 1, indexEnd + 1), args.length);
+                        index + 1, template.placeholders[i], args.length);
                 checkArgument(!hasIndexed || !hasRelative, "cannot mix indexed and positional parameters");
 
                 addArgument(format, c, args[index]);
 
-                formatParts.add("$" + c);
+                formatParts.add(template.parts[i]);
             }
+            checkArgument(template.error == null, "%s", template.error);
 
             if (hasRelative)
             {
@@ -348,11 +747,6 @@ public final class CodeBlock
             return this;
         }
 
-        private boolean isNoArgPlaceholder(char c)
-        {
-            return c == '$' || c == '>' || c == '<' || c == '[' || c == ']' || c == 'W' || c == 'Z';
-        }
-
         private void addArgument(String format, char c, Object arg)
         {
             switch (c)
@@ -458,13 +852,28 @@ public final class CodeBlock
             return addStatement("$L", codeBlock);
         }
 
+        /**
+         * Appends the format parts of {@code codeBlock}. The block is referenced, not copied.
+         */
         public Builder add(CodeBlock codeBlock)
         {
-            formatParts.addAll(codeBlock.formatParts);
-            args.addAll(codeBlock.args);
+            if (codeBlock.isEmpty()) return this;
+            sealFormatParts();
+            blocks.add(codeBlock);
             return this;
         }
 
+        /**
+         * Moves the pending format parts into a block of their own.
+         */
+        private void sealFormatParts()
+        {
+            if (formatParts.isEmpty()) return;
+            blocks.add(new CodeBlock(formatParts, args));
+            formatParts.clear();
+            args.clear();
+        }
+
         public Builder indent()
         {
             this.formatParts.add("$>");
@@ -481,53 +890,96 @@ public final class CodeBlock
         {
             formatParts.clear();
             args.clear();
+            blocks.clear();
             return this;
         }
 
         public CodeBlock build()
         {
-            return new CodeBlock(this);
+            if (blocks.isEmpty()) return new CodeBlock(formatParts, args);
+            sealFormatParts();
+            return blocks.size() == 1
+                    ? blocks.get(0)
+                    : new CodeBlock(blocks.toArray(new CodeBlock[0]));
         }
 
     }
 
+    private static final class LeafIterator implements Iterator<CodeBlock>
+    {
+
+        private final ArrayDeque<CodeBlock> stack = new ArrayDeque<>();
+
+        LeafIterator(CodeBlock root)
+        {
+            stack.push(root);
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            while (!stack.isEmpty() && stack.peek().children != null)
+            {
+                CodeBlock[] children = stack.pop().children;
+                for (int i = children.length - 1; i >= 0; i--)
+                {
+                    stack.push(children[i]);
+                }
+            }
+            return !stack.isEmpty();
+        }
+
+        @Override
+        public CodeBlock next()
+        {
+            if (!hasNext()) throw new NoSuchElementException();
+            return stack.pop();
+        }
+
+    }
+
+    /**
+     * Collects the blocks to join. Each thread of a parallel stream collects into its own joiner,
+     * and merging joiners only concatenates their lists; the blocks are shared by the result.
+     */
     private static final class CodeBlockJoiner
     {
 
         private final String delimiter;
-        private final Builder builder;
-        private boolean first = true;
+        private final List<CodeBlock> codeBlocks = new ArrayList<>();
 
-        CodeBlockJoiner(String delimiter, Builder builder)
+        CodeBlockJoiner(String delimiter)
         {
             this.delimiter = delimiter;
-            this.builder = builder;
         }
 
         CodeBlockJoiner add(CodeBlock codeBlock)
         {
-            if (!first)
-            {
-                builder.add(delimiter);
-            }
-            first = false;
-
-            builder.add(codeBlock);
+            codeBlocks.add(codeBlock);
             return this;
         }
 
         CodeBlockJoiner merge(CodeBlockJoiner other)
         {
-            CodeBlock otherBlock = other.builder.build();
-            if (!otherBlock.isEmpty())
-            {
-                add(otherBlock);
-            }
+            codeBlocks.addAll(other.codeBlocks);
             return this;
         }
 
-        CodeBlock join()
+        CodeBlock join(CodeBlock prefix, CodeBlock suffix)
         {
+            Builder builder = builder();
+            if (prefix != null) builder.add(prefix);
+            CodeBlock delimiterBlock = null;
+            for (int i = 0, size = codeBlocks.size(); i < size; i++)
+            {
+                if (i > 0)
+                {
+                    if (delimiterBlock == null) delimiterBlock = CodeBlock.of(delimiter);
+                    builder.add(delimiterBlock);
+                }
+                builder.add(codeBlocks.get(i));
+            }
+            if (suffix != null) builder.add(suffix);
             return builder.build();
         }
 
@@ -16,27 +16,24 @@
 
 package com.zeoflow.jx.file;
 
-import javax.lang.model.SourceVersion;
 import javax.lang.model.element.Modifier;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.ListIterator;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.regex.Pattern;
 
 import static com.zeoflow.jx.file.Util.checkArgument;
 import static com.zeoflow.jx.file.Util.checkNotNull;
 import static com.zeoflow.jx.file.Util.checkState;
-import static com.zeoflow.jx.file.Util.stringLiteralWithDoubleQuotes;
 import static java.lang.String.join;
 
 /**
@@ -50,13 +47,34 @@ final class CodeWriter
      * Sentinel value that indicates that no user-provided package has been set.
      */
     private static final String NO_PACKAGE = "";
-    private static final Pattern LINE_BREAKING_PATTERN = Pattern.compile("\\R");
+    /**
+     * The most characters of a string literal that are escaped before they're emitted.
+     */
+    private static final int LITERAL_CHUNK_LENGTH = 4096;
+    /**
+     * Every modifier in the standard order, and its keyword followed by a space, indexed by ordinal.
+     */
+    private static final Modifier[] MODIFIERS = Modifier.values();
+    private static final String[] MODIFIER_KEYWORDS = new String[MODIFIERS.length];
+
+    static
+    {
+        for (Modifier modifier : MODIFIERS)
+        {
+            MODIFIER_KEYWORDS[modifier.ordinal()] = modifier.toString() + " ";
+        }
+    }
 
     private final String indent;
     private final LineWrapper out;
-    private final List<TypeSpec> typeSpecStack = new ArrayList<>();
-    private final Set<String> staticImportClassNames;
-    private final Set<String> staticImports;
+    /**
+     * The file scope followed by the scope of each type being emitted, outermost first.
+     */
+    private final List<Scope> scopeStack = new ArrayList<>();
+    /**
+     * The statically imported members of each class, keyed by the class's canonical name.
+     */
+    private final Map<String, StaticImports> staticImports = new HashMap<>();
     private final Set<String> alwaysQualify;
     private final Map<String, ClassName> importedTypes;
     private final Map<String, ClassName> importableTypes = new LinkedHashMap<>();
@@ -71,8 +89,20 @@ final class CodeWriter
     private int indentLevel;
     private boolean javadoc = false;
     private boolean comment = false;
+    /**
+     * True to leave out comments, javadoc, indentation and blank lines between members.
+     */
+    private boolean compact = false;
     private String packageName = NO_PACKAGE;
     private boolean trailingNewline;
+    /**
+     * A type waiting to see whether the next format part references one of its static imports.
+     */
+    private ClassName deferredTypeName;
+    /**
+     * The part of a string literal escaped but not yet emitted.
+     */
+    private final StringBuilder literalChunk = new StringBuilder();
 
     CodeWriter(Appendable out)
     {
@@ -90,28 +120,51 @@ final class CodeWriter
                Set<String> staticImports,
                Set<String> alwaysQualify)
     {
-        this.out = new LineWrapper(out, indent, 100);
+        this(out, indent, importedTypes, staticImports, alwaysQualify,
+                LineWrapper.DEFAULT_COLUMN_LIMIT);
+    }
+
+    CodeWriter(Appendable out,
+               String indent,
+               Map<String, ClassName> importedTypes,
+               Set<String> staticImports,
+               Set<String> alwaysQualify,
+               int columnLimit)
+    {
+        this.out = new LineWrapper(out, indent, columnLimit);
         this.indent = checkNotNull(indent, "indent == null");
         this.importedTypes = checkNotNull(importedTypes, "importedTypes == null");
-        this.staticImports = checkNotNull(staticImports, "staticImports == null");
+        checkNotNull(staticImports, "staticImports == null");
         this.alwaysQualify = checkNotNull(alwaysQualify, "alwaysQualify == null");
-        this.staticImportClassNames = new LinkedHashSet<>();
+        this.scopeStack.add(new Scope(null));
         for (String signature : staticImports)
         {
-            staticImportClassNames.add(signature.substring(0, signature.lastIndexOf('.')));
+            int dot = signature.lastIndexOf('.');
+            StaticImports members = this.staticImports.computeIfAbsent(
+                    signature.substring(0, dot), k -> new StaticImports());
+            String member = signature.substring(dot + 1);
+            if (member.equals("*"))
+            {
+                members.wildcard = true;
+            } else
+            {
+                members.members.add(member);
+            }
         }
     }
-    private static String extractMemberName(String part)
+    /**
+     * Returns the end of the identifier that starts at {@code start} in {@code part}.
+     */
+    private static int memberNameEnd(String part, int start)
     {
-        checkArgument(Character.isJavaIdentifierStart(part.charAt(0)), "not an identifier: %s", part);
-        for (int i = 1; i <= part.length(); i++)
+        checkArgument(Character.isJavaIdentifierStart(part.charAt(start)), "not an identifier: %s",
+                part.substring(start));
+        int end = start + 1;
+        while (end < part.length() && Character.isJavaIdentifierPart(part.charAt(end)))
         {
-            if (!SourceVersion.isIdentifier(part.substring(0, i)))
-            {
-                return part.substring(0, i - 1);
-            }
+            end++;
         }
-        return part;
+        return end;
     }
     public Map<String, ClassName> importedTypes()
     {
@@ -140,26 +193,42 @@ final class CodeWriter
     {
         checkState(this.packageName == NO_PACKAGE, "package already set: %s", this.packageName);
         this.packageName = checkNotNull(packageName, "packageName == null");
+        clearScopes();
         return this;
     }
     public CodeWriter popPackage()
     {
         checkState(this.packageName != NO_PACKAGE, "package not set");
         this.packageName = NO_PACKAGE;
+        clearScopes();
         return this;
     }
     public CodeWriter pushType(TypeSpec type)
     {
-        this.typeSpecStack.add(type);
+        this.scopeStack.add(new Scope(type));
         return this;
     }
     public CodeWriter popType()
     {
-        this.typeSpecStack.remove(typeSpecStack.size() - 1);
+        checkState(scopeStack.size() > 1, "no type to pop");
+        this.scopeStack.remove(scopeStack.size() - 1);
         return this;
     }
+    /**
+     * Forgets everything the scopes have resolved, since it depends on the current package.
+     */
+    private void clearScopes()
+    {
+        for (Scope scope : scopeStack)
+        {
+            scope.className = null;
+            scope.lookups.clear();
+        }
+    }
     public void emitComment(CodeBlock codeBlock) throws IOException
     {
+        if (compact) return;
+
         trailingNewline = true; // Force the '//' prefix for the comment.
         comment = true;
         try
@@ -174,6 +243,12 @@ final class CodeWriter
     public void emitJavadoc(CodeBlock javadocCodeBlock) throws IOException
     {
         if (javadocCodeBlock.isEmpty()) return;
+        if (compact)
+        {
+            // javac marks elements deprecated in the class file from this tag, so it must stay.
+            if (hasDeprecatedTag(javadocCodeBlock)) emit("/** @deprecated */\n");
+            return;
+        }
 
         emit("/**\n");
         javadoc = true;
@@ -186,6 +261,23 @@ final class CodeWriter
         }
         emit(" */\n");
     }
+    /**
+     * Returns true if a line of {@code javadocCodeBlock} starts with the {@code @deprecated} tag.
+     */
+    private static boolean hasDeprecatedTag(CodeBlock javadocCodeBlock)
+    {
+        for (String line : javadocCodeBlock.toString().split("\\R"))
+        {
+            int start = 0;
+            while (start < line.length()
+                    && (Character.isWhitespace(line.charAt(start)) || line.charAt(start) == '*'))
+            {
+                start++;
+            }
+            if (line.startsWith("@deprecated", start)) return true;
+        }
+        return false;
+    }
     public void emitAnnotations(List<AnnotationSpec> annotations, boolean inline) throws IOException
     {
         for (AnnotationSpec annotationSpec : annotations)
@@ -202,11 +294,10 @@ final class CodeWriter
             throws IOException
     {
         if (modifiers.isEmpty()) return;
-        for (Modifier modifier : EnumSet.copyOf(modifiers))
+        for (Modifier modifier : MODIFIERS)
         {
-            if (implicitModifiers.contains(modifier)) continue;
-            emitAndIndent(modifier.name().toLowerCase(Locale.US));
-            emitAndIndent(" ");
+            if (!modifiers.contains(modifier) || implicitModifiers.contains(modifier)) continue;
+            emitAndIndent(MODIFIER_KEYWORDS[modifier.ordinal()]);
         }
     }
     public void emitModifiers(Set<Modifier> modifiers) throws IOException
@@ -221,7 +312,7 @@ final class CodeWriter
     {
         if (typeVariables.isEmpty()) return;
 
-        typeVariables.forEach(typeVariable -> currentTypeVariables.add(typeVariable.name));
+        pushTypeVariables(typeVariables);
 
         emit("<");
         boolean firstTypeVariable = true;
@@ -229,18 +320,26 @@ final class CodeWriter
         {
             if (!firstTypeVariable) emit(", ");
             emitAnnotations(typeVariable.annotations, true);
-            emit("$L", typeVariable.name);
+            emit(typeVariable.name);
             boolean firstBound = true;
             for (TypeName bound : typeVariable.bounds)
             {
-                emit(firstBound ? " extends $T" : " & $T", bound);
+                emit(firstBound ? " extends " : " & ").emitType(bound);
                 firstBound = false;
             }
             firstTypeVariable = false;
         }
         emit(">");
     }
-    public void popTypeVariables(List<TypeVariableName> typeVariables) throws IOException
+    /**
+     * Brings {@code typeVariables} into scope without emitting them. Names in scope mask top level
+     * class names during {@link #lookupName}.
+     */
+    void pushTypeVariables(List<TypeVariableName> typeVariables)
+    {
+        typeVariables.forEach(typeVariable -> currentTypeVariables.add(typeVariable.name));
+    }
+    public void popTypeVariables(List<TypeVariableName> typeVariables)
     {
         typeVariables.forEach(typeVariable -> currentTypeVariables.remove(typeVariable.name));
     }
@@ -258,67 +357,94 @@ final class CodeWriter
     }
     public CodeWriter emit(CodeBlock codeBlock, boolean ensureTrailingNewline) throws IOException
     {
+        if (codeBlock.children == null)
+        {
+            emitParts(codeBlock);
+        } else
+        {
+            for (Iterator<CodeBlock> i = codeBlock.leaves(); i.hasNext(); )
+            {
+                emitParts(i.next());
+            }
+        }
+        emitDeferredType();
+        if (ensureTrailingNewline && out.lastChar() != '\n')
+        {
+            emit("\n");
+        }
+        return this;
+    }
+    /**
+     * Emits the format parts of the leaf block {@code codeBlock}. Consecutive leaves of a block are
+     * one sequence of parts, so a type that may be followed by a statically imported member is left
+     * in {@link #deferredTypeName}.
+     */
+    private void emitParts(CodeBlock codeBlock) throws IOException
+    {
+        byte[] opcodes = codeBlock.opcodes;
+        String[] texts = codeBlock.texts;
+        Object[] args = codeBlock.args;
         int a = 0;
-        ClassName deferredTypeName = null; // used by "import static" logic
-        ListIterator<String> partIterator = codeBlock.formatParts.listIterator();
-        while (partIterator.hasNext())
+        int t = 0;
+        for (int i = 0; i < opcodes.length; i++)
         {
-            String part = partIterator.next();
-            switch (part)
+            if (opcodes[i] != CodeBlock.TEXT) emitDeferredType();
+            switch (opcodes[i])
             {
-                case "$L":
-                    emitLiteral(codeBlock.args.get(a++));
+                case CodeBlock.LITERAL:
+                    emitLiteral(args[a++]);
                     break;
 
-                case "$N":
-                    emitAndIndent((String) codeBlock.args.get(a++));
+                case CodeBlock.NAME:
+                    emitAndIndent((String) args[a++]);
                     break;
 
-                case "$S":
-                    String string = (String) codeBlock.args.get(a++);
+                case CodeBlock.STRING:
+                    String string = (String) args[a++];
                     // Emit null as a literal null: no quotes.
-                    emitAndIndent(string != null
-                            ? stringLiteralWithDoubleQuotes(string, indent)
-                            : "null");
+                    if (string != null)
+                    {
+                        emitStringLiteral(string);
+                    } else
+                    {
+                        emitAndIndent("null");
+                    }
                     break;
 
-                case "$T":
-                    TypeName typeName = (TypeName) codeBlock.args.get(a++);
-                    // defer "typeName.emit(this)" if next format part will be handled by the default case
-                    if (typeName instanceof ClassName && partIterator.hasNext())
+                case CodeBlock.TYPE:
+                    TypeName typeName = (TypeName) args[a++];
+                    // defer "typeName.emit(this)" if next format part may be handled by the text case
+                    if (typeName instanceof ClassName
+                            && (i + 1 == opcodes.length || opcodes[i + 1] == CodeBlock.TEXT))
                     {
-                        if (!codeBlock.formatParts.get(partIterator.nextIndex()).startsWith("$"))
+                        ClassName candidate = (ClassName) typeName;
+                        if (isStaticImportClass(candidate))
                         {
-                            ClassName candidate = (ClassName) typeName;
-                            if (staticImportClassNames.contains(candidate.canonicalName))
-                            {
-                                checkState(deferredTypeName == null, "pending type for static import?!");
-                                deferredTypeName = candidate;
-                                break;
-                            }
+                            deferredTypeName = candidate;
+                            break;
                         }
                     }
                     typeName.emit(this);
                     break;
 
-                case "$$":
+                case CodeBlock.DOLLAR:
                     emitAndIndent("$");
                     break;
 
-                case "$>":
+                case CodeBlock.INDENT:
                     indent();
                     break;
 
-                case "$<":
+                case CodeBlock.UNINDENT:
                     unindent();
                     break;
 
-                case "$[":
+                case CodeBlock.STATEMENT_BEGIN:
                     checkState(statementLine == -1, "statement enter $[ followed by statement enter $[");
                     statementLine = 0;
                     break;
 
-                case "$]":
+                case CodeBlock.STATEMENT_END:
                     checkState(statementLine != -1, "statement exit $] has no matching statement enter $[");
                     if (statementLine > 0)
                     {
@@ -327,38 +453,64 @@ final class CodeWriter
                     statementLine = -1;
                     break;
 
-                case "$W":
+                case CodeBlock.WRAPPING_SPACE:
                     out.wrappingSpace(indentLevel + 2);
                     break;
 
-                case "$Z":
+                case CodeBlock.ZERO_WIDTH_SPACE:
                     out.zeroWidthSpace(indentLevel + 2);
                     break;
 
-                default:
+                case CodeBlock.TEXT:
+                    String part = texts[t++];
                     // handle deferred type
                     if (deferredTypeName != null)
                     {
-                        if (part.startsWith("."))
+                        if (emitStaticImportMember(deferredTypeName.canonicalName, part))
                         {
-                            if (emitStaticImportMember(deferredTypeName.canonicalName, part))
-                            {
-                                // okay, static import hit and all was emitted, so clean-up and jump to next part
-                                deferredTypeName = null;
-                                break;
-                            }
+                            // okay, static import hit and all was emitted, so clean-up and jump to next part
+                            deferredTypeName = null;
+                            break;
                         }
-                        deferredTypeName.emit(this);
-                        deferredTypeName = null;
+                        emitDeferredType();
                     }
                     emitAndIndent(part);
                     break;
+
+                default:
+                    throw new AssertionError(opcodes[i]);
             }
         }
-        if (ensureTrailingNewline && out.lastChar() != '\n')
-        {
-            emit("\n");
-        }
+    }
+    private void emitDeferredType() throws IOException
+    {
+        if (deferredTypeName == null) return;
+        ClassName typeName = deferredTypeName;
+        deferredTypeName = null;
+        typeName.emit(this);
+    }
+    /**
+     * Toggles javadoc mode. Types referenced from javadoc are never imported.
+     */
+    CodeWriter javadoc(boolean javadoc)
+    {
+        this.javadoc = javadoc;
+        return this;
+    }
+    /**
+     * Toggles compact mode, for sources that only a compiler reads.
+     */
+    CodeWriter compact(boolean compact)
+    {
+        this.compact = compact;
+        return this;
+    }
+    /**
+     * Emits the blank line that separates members, unless in compact mode.
+     */
+    CodeWriter emitBlankLine() throws IOException
+    {
+        if (!compact) emit("\n");
         return this;
     }
     public CodeWriter emitWrappingSpace() throws IOException
@@ -366,22 +518,52 @@ final class CodeWriter
         out.wrappingSpace(indentLevel + 2);
         return this;
     }
+    CodeWriter emitZeroWidthSpace() throws IOException
+    {
+        out.zeroWidthSpace(indentLevel + 2);
+        return this;
+    }
+    /**
+     * Emits {@code typeName} like a {@code $T} placeholder that isn't followed by a member
+     * reference. Unlike {@code emit("$T", typeName)}, this doesn't build a code block.
+     */
+    CodeWriter emitType(TypeName typeName) throws IOException
+    {
+        return typeName.emit(this);
+    }
     private boolean emitStaticImportMember(String canonical, String part) throws IOException
     {
-        String partWithoutLeadingDot = part.substring(1);
-        if (partWithoutLeadingDot.isEmpty()) return false;
-        char first = partWithoutLeadingDot.charAt(0);
-        if (!Character.isJavaIdentifierStart(first)) return false;
-        String explicit = canonical + "." + extractMemberName(partWithoutLeadingDot);
-        String wildcard = canonical + ".*";
-        if (staticImports.contains(explicit) || staticImports.contains(wildcard))
+        if (isStaticImportMember(canonical, part))
         {
-            emitAndIndent(partWithoutLeadingDot);
+            emitAndIndent(part.substring(1));
             return true;
         }
         return false;
     }
 
+    /**
+     * Returns true if {@code part}, a literal following a {@code $T} placeholder for {@code
+     * canonical}, starts with a member reference that is statically imported.
+     */
+    boolean isStaticImportMember(String canonical, String part)
+    {
+        if (part.length() < 2 || part.charAt(0) != '.') return false;
+        if (!Character.isJavaIdentifierStart(part.charAt(1))) return false;
+        StaticImports members = staticImports.get(canonical);
+        if (members == null) return false;
+        if (members.wildcard) return true;
+        return members.members.contains(part.substring(1, memberNameEnd(part, 1)));
+    }
+
+    /**
+     * Returns true if a {@code $T} placeholder for {@code className} is a candidate for a static
+     * import and has to be deferred until the following literal is known.
+     */
+    boolean isStaticImportClass(ClassName className)
+    {
+        return staticImports.containsKey(className.canonicalName);
+    }
+
     private void emitLiteral(Object o) throws IOException
     {
         if (o instanceof TypeSpec)
@@ -416,6 +598,26 @@ final class CodeWriter
             return className.canonicalName;
         }
 
+        // Everything else only depends on the scope, so it's resolved once per scope.
+        Map<ClassName, Lookup> lookups = scopeStack.get(scopeStack.size() - 1).lookups;
+        Lookup lookup = lookups.get(className);
+        if (lookup == null)
+        {
+            lookup = resolveName(className, topLevelSimpleName);
+            lookups.put(className, lookup);
+        }
+
+        // We'll have to use the fully-qualified name. Mark the type as importable for a future pass.
+        if (lookup.importable && !javadoc)
+        {
+            importableType(className);
+            lookup.importable = false;
+        }
+        return lookup.name;
+    }
+
+    private Lookup resolveName(ClassName className, String topLevelSimpleName)
+    {
         // Find the shortest suffix of className that resolves to className. This uses both local type
         // names (so `Entry` in `Map` refers to `Map.Entry`). Also uses imports.
         boolean nameResolved = false;
@@ -427,31 +629,25 @@ final class CodeWriter
             if (resolved != null && Objects.equals(resolved.canonicalName, c.canonicalName))
             {
                 int suffixOffset = c.simpleNames().size() - 1;
-                return join(".", className.simpleNames().subList(
-                        suffixOffset, className.simpleNames().size()));
+                return new Lookup(join(".", className.simpleNames().subList(
+                        suffixOffset, className.simpleNames().size())), false);
             }
         }
 
         // If the name resolved but wasn't a match, we're stuck with the fully qualified name.
         if (nameResolved)
         {
-            return className.canonicalName;
+            return new Lookup(className.canonicalName, false);
         }
 
         // If the class is in the same package, we're done.
         if (Objects.equals(packageName, className.packageName()))
         {
             referencedNames.add(topLevelSimpleName);
-            return join(".", className.simpleNames());
-        }
-
-        // We'll have to use the fully-qualified name. Mark the type as importable for a future pass.
-        if (!javadoc)
-        {
-            importableType(className);
+            return new Lookup(join(".", className.simpleNames()), false);
         }
 
-        return className.canonicalName;
+        return new Lookup(className.canonicalName, true);
     }
 
     private void importableType(ClassName className)
@@ -481,19 +677,19 @@ final class CodeWriter
     private ClassName resolve(String simpleName)
     {
         // Match a child of the current (potentially nested) class.
-        for (int i = typeSpecStack.size() - 1; i >= 0; i--)
+        for (int i = scopeStack.size() - 1; i > 0; i--)
         {
-            TypeSpec typeSpec = typeSpecStack.get(i);
+            TypeSpec typeSpec = scopeStack.get(i).typeSpec;
             if (typeSpec.nestedTypesSimpleNames.contains(simpleName))
             {
-                return stackClassName(i, simpleName);
+                return scopeClassName(i).nestedClass(simpleName);
             }
         }
 
         // Match the top-level class.
-        if (typeSpecStack.size() > 0 && Objects.equals(typeSpecStack.get(0).name, simpleName))
+        if (scopeStack.size() > 1 && Objects.equals(scopeStack.get(1).typeSpec.name, simpleName))
         {
-            return ClassName.get(packageName, simpleName);
+            return scopeClassName(1);
         }
 
         // Match an imported type.
@@ -504,16 +700,19 @@ final class CodeWriter
     }
 
     /**
-     * Returns the class named {@code simpleName} when nested in the class at {@code stackDepth}.
+     * Returns the class of the type at {@code depth} in the scope stack, where 1 is the top-level
+     * class.
      */
-    private ClassName stackClassName(int stackDepth, String simpleName)
+    private ClassName scopeClassName(int depth)
     {
-        ClassName className = ClassName.get(packageName, typeSpecStack.get(0).name);
-        for (int i = 1; i <= stackDepth; i++)
+        Scope scope = scopeStack.get(depth);
+        if (scope.className == null)
         {
-            className = className.nestedClass(typeSpecStack.get(i).name);
+            scope.className = depth == 1
+                    ? ClassName.get(packageName, scope.typeSpec.name)
+                    : scopeClassName(depth - 1).nestedClass(scope.typeSpec.name);
         }
-        return className.nestedClass(simpleName);
+        return scope.className;
     }
 
     /**
@@ -523,57 +722,166 @@ final class CodeWriter
      */
     CodeWriter emitAndIndent(String s) throws IOException
     {
-        boolean first = true;
-        for (String line : LINE_BREAKING_PATTERN.split(s, -1))
+        int length = s.length();
+        int lineStart = 0;
+        while (true)
         {
-            // Emit a newline character. Make sure blank lines in Javadoc & comments look good.
-            if (!first)
+            int lineEnd = lineStart;
+            while (lineEnd < length && !isLineBreak(s.charAt(lineEnd)))
             {
-                if ((javadoc || comment) && trailingNewline)
-                {
-                    emitIndentation();
-                    out.append(javadoc ? " *" : "//");
-                }
-                out.append("\n");
-                trailingNewline = true;
-                if (statementLine != -1)
-                {
-                    if (statementLine == 0)
-                    {
-                        indent(2); // Begin multiple-line statement. Increase the indentation level.
-                    }
-                    statementLine++;
-                }
+                lineEnd++;
             }
+            emitLine(s, lineStart, lineEnd);
+            if (lineEnd == length) break;
 
-            first = false;
-            if (line.isEmpty()) continue; // Don't indent empty lines.
+            // Like \R, a "\r\n" pair is a single line break.
+            lineStart = lineEnd + 1;
+            if (s.charAt(lineEnd) == '\r' && lineStart < length && s.charAt(lineStart) == '\n')
+            {
+                lineStart++;
+            }
+
+            emitNewline();
+        }
+        return this;
+    }
+
+    private void emitNewline() throws IOException
+    {
+        // Emit a newline character. Make sure blank lines in Javadoc & comments look good.
+        if ((javadoc || comment) && trailingNewline)
+        {
+            emitIndentation();
+            out.append(javadoc ? " *" : "//");
+        }
+        out.append("\n");
+        trailingNewline = true;
+        if (statementLine != -1)
+        {
+            if (statementLine == 0)
+            {
+                indent(2); // Begin multiple-line statement. Increase the indentation level.
+            }
+            statementLine++;
+        }
+    }
+
+    private void emitLine(CharSequence s, int start, int end) throws IOException
+    {
+        if (start == end) return; // Don't indent empty lines.
+
+        // Emit indentation and comment prefix if necessary.
+        if (trailingNewline)
+        {
+            emitIndentation();
+            if (javadoc)
+            {
+                out.append(" * ");
+            } else if (comment)
+            {
+                out.append("// ");
+            }
+        }
+
+        out.append(s, start, end);
+        trailingNewline = false;
+    }
+
+    /**
+     * Emits {@code value} as a string literal with a line per line of {@code value}. The literal is
+     * escaped and written a chunk at a time, so it is never held in memory as a whole.
+     *
+     * <p>A class file can't hold a string constant of more than {@value
+     * Util#MAX_STRING_CONSTANT_BYTES} bytes, and a literal's lines are joined into one constant.
+     * Longer values are emitted as a {@link StringBuilder} that appends constants that fit.
+     */
+    private void emitStringLiteral(String value) throws IOException
+    {
+        boolean split = !Util.fitsInStringConstant(value);
+        StringBuilder chunk = literalChunk;
+        chunk.setLength(0);
+        if (split)
+        {
+            emitAndIndent("new java.lang.StringBuilder(" + value.length() + ")");
+            emitLiteralLine(chunk, ".append(\"");
+        } else
+        {
+            chunk.append('"');
+        }
 
-            // Emit indentation and comment prefix if necessary.
-            if (trailingNewline)
+        int constantBytes = 0;
+        boolean lineBreak = false;
+        for (int i = 0, length = value.length(); i < length; i++)
+        {
+            char c = value.charAt(i);
+            boolean pairEnd = i > 0 && Character.isLowSurrogate(c)
+                    && Character.isHighSurrogate(value.charAt(i - 1));
+            if (split && !pairEnd)
             {
-                emitIndentation();
-                if (javadoc)
+                // Start a new constant if c doesn't fit. Surrogate pairs are never split.
+                int bytes = Util.modifiedUtf8Length(c);
+                if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(value.charAt(i + 1)))
                 {
-                    out.append(" * ");
-                } else if (comment)
+                    bytes += Util.modifiedUtf8Length(value.charAt(i + 1));
+                }
+                if (constantBytes + bytes > Util.MAX_STRING_CONSTANT_BYTES)
                 {
-                    out.append("// ");
+                    chunk.append("\")");
+                    emitLiteralLine(chunk, ".append(\"");
+                    constantBytes = 0;
+                    lineBreak = false;
                 }
+                constantBytes += bytes;
+            }
+
+            // Each line of the value after the first goes on a line of its own.
+            if (lineBreak)
+            {
+                chunk.append('"');
+                emitLiteralLine(chunk, "+ \"");
+                lineBreak = false;
             }
 
-            out.append(line);
-            trailingNewline = false;
+            Util.appendStringLiteralCharacter(chunk, c);
+            if (c == '\n')
+            {
+                lineBreak = true;
+            } else if (chunk.length() >= LITERAL_CHUNK_LENGTH)
+            {
+                emitLine(chunk, 0, chunk.length());
+                chunk.setLength(0);
+            }
         }
-        return this;
+
+        chunk.append(split ? "\").toString()" : "\"");
+        emitLine(chunk, 0, chunk.length());
+        chunk.setLength(0);
+    }
+
+    /**
+     * Emits the pending part of a string literal and a line break, and starts the next line of the
+     * literal with {@code start}.
+     */
+    private void emitLiteralLine(StringBuilder chunk, String start) throws IOException
+    {
+        emitLine(chunk, 0, chunk.length());
+        chunk.setLength(0);
+        emitNewline();
+        chunk.append(indent).append(indent).append(start);
+    }
+
+    /**
+     * Returns true if {@code c} is a line break on its own, as matched by the regex {@code \R}.
+     */
+    private static boolean isLineBreak(char c)
+    {
+        return (c >= '\n' && c <= '\r') || c == '\u0085' || c == '\u2028' || c == '\u2029';
     }
 
     private void emitIndentation() throws IOException
     {
-        for (int j = 0; j < indentLevel; j++)
-        {
-            out.append(indent);
-        }
+        if (indentLevel > 0 && !compact) out.append(out.indentation(indentLevel));
     }
 
     /**
@@ -587,6 +895,64 @@ final class CodeWriter
         return result;
     }
 
+    /**
+     * The members statically imported from a class.
+     */
+    private static final class StaticImports
+    {
+
+        final Set<String> members = new HashSet<>();
+        /**
+         * True if all of the class's members are imported with {@code .*}.
+         */
+        boolean wildcard;
+
+    }
+
+    /**
+     * A type being emitted and the names looked up while it is the innermost type.
+     */
+    private static final class Scope
+    {
+
+        /**
+         * The type, or null for the file scope.
+         */
+        final TypeSpec typeSpec;
+        final Map<ClassName, Lookup> lookups = new HashMap<>();
+        /**
+         * The class of {@link #typeSpec}, computed when it is first needed.
+         */
+        ClassName className;
+
+        Scope(TypeSpec typeSpec)
+        {
+            this.typeSpec = typeSpec;
+        }
+
+    }
+
+    /**
+     * The name a class is referenced by in a scope.
+     */
+    private static final class Lookup
+    {
+
+        final String name;
+        /**
+         * True if the class still has to be marked as importable the next time it is referenced
+         * outside of javadoc.
+         */
+        boolean importable;
+
+        Lookup(String name, boolean importable)
+        {
+            this.name = name;
+            this.importable = importable;
+        }
+
+    }
+
     // A makeshift multi-set implementation
     private static final class Multiset<T>
     {
@@ -24,6 +24,7 @@ import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 
 import static com.zeoflow.jx.file.Util.checkArgument;
@@ -42,6 +43,7 @@ public final class FieldSpec
     public final List<AnnotationSpec> annotations;
     public final Set<Modifier> modifiers;
     public final CodeBlock initializer;
+    private int cachedHashCode;
 
     private FieldSpec(Builder builder)
     {
@@ -74,7 +76,7 @@ public final class FieldSpec
         codeWriter.emitJavadoc(javadoc);
         codeWriter.emitAnnotations(annotations, false);
         codeWriter.emitModifiers(modifiers, implicitModifiers);
-        codeWriter.emit("$T $L", type, name);
+        codeWriter.emitType(type).emit(" ").emit(name);
         if (!initializer.isEmpty())
         {
             codeWriter.emit(" = ");
@@ -88,12 +90,25 @@ public final class FieldSpec
         if (this == o) return true;
         if (o == null) return false;
         if (getClass() != o.getClass()) return false;
-        return toString().equals(o.toString());
+        FieldSpec that = (FieldSpec) o;
+        return hashCode() == that.hashCode()
+                && name.equals(that.name)
+                && type.equals(that.type)
+                && modifiers.equals(that.modifiers)
+                && annotations.equals(that.annotations)
+                && javadoc.equals(that.javadoc)
+                && initializer.equals(that.initializer);
     }
     @Override
     public int hashCode()
     {
-        return toString().hashCode();
+        int result = cachedHashCode;
+        if (result == 0)
+        {
+            result = Objects.hash(name, type, modifiers, annotations, javadoc, initializer);
+            cachedHashCode = result;
+        }
+        return result;
     }
     @Override
     public String toString()
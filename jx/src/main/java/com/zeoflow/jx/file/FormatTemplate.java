@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2021 ZeoFlow SRL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zeoflow.jx.file;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A format string of {@link CodeBlock.Builder#add} or {@link CodeBlock.Builder#addNamed}, split into
+ * format parts. Parsing only depends on the format string, so templates are cached and shared;
+ * everything that depends on the arguments is checked when a template is applied.
+ *
+ * <p>Errors in the format itself are not thrown while parsing. The template keeps the parts before
+ * the error and the error's message, and applying it throws once those parts have been applied.
+ * This way errors are reported in the same order as if the format was scanned while adding it.
+ */
+final class FormatTemplate
+{
+
+    /**
+     * The most formats cached per kind. The least recently used format is dropped to make room, so
+     * formats built at runtime don't push out the constant ones that are used over and over.
+     */
+    private static final int MAX_CACHED = 1024;
+    /**
+     * The longest format that is cached. Longer formats are usually text built at runtime, which
+     * would be kept in memory for no gain.
+     */
+    private static final int MAX_CACHED_LENGTH = 256;
+    private static final Map<String, FormatTemplate> POSITIONAL = newCache();
+    private static final Map<String, FormatTemplate> NAMED = newCache();
+
+    /**
+     * Format parts, with text parts as they appear in the format and placeholders as {@code "$c"}.
+     */
+    final String[] parts;
+    /**
+     * The placeholder character of each part that takes an argument, or 0.
+     */
+    final char[] argumentTypes;
+    /**
+     * The argument index of each positional part that takes an argument, 0-based.
+     */
+    final int[] argumentIndexes;
+    /**
+     * Whether each positional part that takes an argument has an explicit index, like {@code $2L}.
+     */
+    final boolean[] indexed;
+    /**
+     * Each positional placeholder as it was written, like {@code $2L}, for error messages.
+     */
+    final String[] placeholders;
+    /**
+     * The argument name of each named part that takes an argument.
+     */
+    final String[] argumentNames;
+    final boolean hasIndexed;
+    /**
+     * The message of the format error after the last part, or null.
+     */
+    final String error;
+
+    private FormatTemplate(Parser parser)
+    {
+        int size = parser.parts.size();
+        this.parts = parser.parts.toArray(new String[size]);
+        this.argumentTypes = new char[size];
+        this.argumentIndexes = new int[size];
+        this.indexed = new boolean[size];
+        this.placeholders = new String[size];
+        this.argumentNames = new String[size];
+        for (int i = 0; i < size; i++)
+        {
+            argumentTypes[i] = parser.argumentTypes.get(i);
+            argumentIndexes[i] = parser.argumentIndexes.get(i);
+            indexed[i] = parser.indexed.get(i);
+            placeholders[i] = parser.placeholders.get(i);
+            argumentNames[i] = parser.argumentNames.get(i);
+        }
+        this.hasIndexed = parser.hasIndexed;
+        this.error = parser.error;
+    }
+
+    private static Map<String, FormatTemplate> newCache()
+    {
+        return Collections.synchronizedMap(new LinkedHashMap<String, FormatTemplate>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FormatTemplate> eldest)
+            {
+                return size() > MAX_CACHED;
+            }
+        });
+    }
+
+    static FormatTemplate positional(String format)
+    {
+        if (format.length() > MAX_CACHED_LENGTH) return new Parser(format).positional();
+        FormatTemplate result = POSITIONAL.get(format);
+        if (result == null)
+        {
+            result = new Parser(format).positional();
+            POSITIONAL.put(format, result);
+        }
+        return result;
+    }
+
+    static FormatTemplate named(String format)
+    {
+        if (format.length() > MAX_CACHED_LENGTH) return new Parser(format).named();
+        FormatTemplate result = NAMED.get(format);
+        if (result == null)
+        {
+            result = new Parser(format).named();
+            NAMED.put(format, result);
+        }
+        return result;
+    }
+
+    static boolean isNoArgPlaceholder(char c)
+    {
+        return c == '$' || c == '>' || c == '<' || c == '[' || c == ']' || c == 'W' || c == 'Z';
+    }
+
+    private static boolean isWordChar(char c)
+    {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    /**
+     * Returns true if {@code name} is a valid argument name for {@link
+     * CodeBlock.Builder#addNamed}: a lowercase letter followed by letters, digits and underscores.
+     */
+    static boolean isArgumentName(String name)
+    {
+        if (name.isEmpty()) return false;
+        char first = name.charAt(0);
+        if (first < 'a' || first > 'z') return false;
+        for (int i = 1; i < name.length(); i++)
+        {
+            if (!isWordChar(name.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    private static final class Parser
+    {
+
+        final String format;
+        final List<String> parts = new ArrayList<>();
+        final List<Character> argumentTypes = new ArrayList<>();
+        final List<Integer> argumentIndexes = new ArrayList<>();
+        final List<Boolean> indexed = new ArrayList<>();
+        final List<String> placeholders = new ArrayList<>();
+        final List<String> argumentNames = new ArrayList<>();
+        boolean hasIndexed;
+        String error;
+
+        Parser(String format)
+        {
+            this.format = format;
+        }
+
+        void add(String part, char argumentType, int argumentIndex, boolean isIndexed,
+                 String placeholder, String argumentName)
+        {
+            parts.add(part);
+            argumentTypes.add(argumentType);
+            argumentIndexes.add(argumentIndex);
+            indexed.add(isIndexed);
+            placeholders.add(placeholder);
+            argumentNames.add(argumentName);
+        }
+
+        void addPart(String part)
+        {
+            add(part, (char) 0, -1, false, null, null);
+        }
+
+        FormatTemplate positional()
+        {
+            int relativeParameterCount = 0;
+            for (int p = 0; p < format.length(); )
+            {
+                if (format.charAt(p) != '$')
+                {
+                    int nextP = format.indexOf('$', p + 1);
+                    if (nextP == -1) nextP = format.length();
+                    addPart(format.substring(p, nextP));
+                    p = nextP;
+                    continue;
+                }
+
+                p++; // '$'.
+
+                // Consume zero or more digits, leaving 'c' as the first non-digit char after the '$'.
+                int indexStart = p;
+                char c;
+                do
+                {
+                    if (p >= format.length())
+                    {
+                        error = String.format("dangling format characters in '%s'", format);
+                        return new FormatTemplate(this);
+                    }
+                    c = format.charAt(p++);
+                } while (c >= '0' && c <= '9');
+                int indexEnd = p - 1;
+
+                // If 'c' doesn't take an argument, we're done.
+                if (isNoArgPlaceholder(c))
+                {
+                    if (indexStart != indexEnd)
+                    {
+                        error = "$$, $>, $<, $[, $], $W, and $Z may not have an index";
+                        return new FormatTemplate(this);
+                    }
+                    addPart("$" + c);
+                    continue;
+                }
+
+                // Find either the indexed argument, or the relative argument. (0-based).
+                boolean isIndexed = indexStart < indexEnd;
+                int index = isIndexed
+                        ? Integer.parseInt(format.substring(indexStart, indexEnd)) - 1
+                        : relativeParameterCount++;
+                hasIndexed |= isIndexed;
+                add("$" + c, c, index, isIndexed, format.substring(indexStart - 1, indexEnd + 1), null);
+            }
+            return new FormatTemplate(this);
+        }
+
+        FormatTemplate named()
+        {
+            int p = 0;
+            while (p < format.length())
+            {
+                int nextP = format.indexOf("$", p);
+                if (nextP == -1)
+                {
+                    addPart(format.substring(p));
+                    break;
+                }
+
+                if (p != nextP)
+                {
+                    addPart(format.substring(p, nextP));
+                    p = nextP;
+                }
+
+                // Match "$argumentName:typeChar", where the name runs up to the next colon.
+                int colon = format.indexOf(':', p);
+                if (colon > p + 1 && colon + 1 < format.length() && isWordChar(format.charAt(colon + 1))
+                        && isWordSpan(p + 1, colon))
+                {
+                    char formatChar = format.charAt(colon + 1);
+                    add("$" + formatChar, formatChar, -1, false, null, format.substring(p + 1, colon));
+                    p = colon + 2;
+                } else
+                {
+                    if (p >= format.length() - 1)
+                    {
+                        error = "dangling $ at end";
+                        return new FormatTemplate(this);
+                    }
+                    if (!isNoArgPlaceholder(format.charAt(p + 1)))
+                    {
+                        error = String.format("unknown format $%s at %s in '%s'",
+                                format.charAt(p + 1), p + 1, format);
+                        return new FormatTemplate(this);
+                    }
+                    addPart(format.substring(p, p + 2));
+                    p += 2;
+                }
+            }
+            return new FormatTemplate(this);
+        }
+
+        private boolean isWordSpan(int start, int end)
+        {
+            for (int i = start; i < end; i++)
+            {
+                if (!isWordChar(format.charAt(i))) return false;
+            }
+            return true;
+        }
+
+    }
+
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2021 ZeoFlow SRL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zeoflow.jx.file;
+
+import javax.lang.model.element.Modifier;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects the types a {@link JavaFile} should import without rendering it. This walks the spec
+ * tree in emission order and only visits type references: {@code $T} arguments, annotations, type
+ * variables and supertypes. Scoping is delegated to a {@link CodeWriter} so that the result is
+ * identical to the imports a full emission pass would suggest.
+ */
+final class ImportCollector
+{
+
+    private static final Appendable NULL_APPENDABLE = new Appendable()
+    {
+        @Override
+        public Appendable append(CharSequence charSequence)
+        {
+            return this;
+        }
+        @Override
+        public Appendable append(CharSequence charSequence, int start, int end)
+        {
+            return this;
+        }
+        @Override
+        public Appendable append(char c)
+        {
+            return this;
+        }
+    };
+
+    private final CodeWriter scope;
+    /**
+     * A type waiting to see whether the next format part references one of its static imports.
+     */
+    private ClassName deferredTypeName;
+
+    ImportCollector(String indent, Set<String> staticImports, Set<String> alwaysQualify)
+    {
+        this.scope = new CodeWriter(NULL_APPENDABLE, indent, staticImports, alwaysQualify);
+    }
+
+    /**
+     * Returns the types that should be imported by a file in {@code packageName} declaring {@code
+     * typeSpec}. If there were any simple name collisions, that type's first use is imported.
+     */
+    Map<String, ClassName> collect(String packageName, CodeBlock fileComment, TypeSpec typeSpec)
+    {
+        scope.pushPackage(packageName);
+        visit(fileComment);
+        visit(typeSpec, null);
+        scope.popPackage();
+        return scope.suggestedImports();
+    }
+
+    private void visit(TypeSpec typeSpec, String enumName)
+    {
+        if (enumName != null)
+        {
+            visitJavadoc(typeSpec.javadoc);
+            visitAnnotations(typeSpec.annotations);
+            visit(typeSpec.anonymousTypeArguments);
+            if (typeSpec.fieldSpecs.isEmpty()
+                    && typeSpec.methodSpecs.isEmpty()
+                    && typeSpec.typeSpecs.isEmpty())
+            {
+                return;
+            }
+        } else if (typeSpec.anonymousTypeArguments != null)
+        {
+            visit(!typeSpec.superinterfaces.isEmpty()
+                    ? typeSpec.superinterfaces.get(0)
+                    : typeSpec.superclass);
+            visit(typeSpec.anonymousTypeArguments);
+        } else
+        {
+            // Mirror TypeSpec.emit(): the declaration is resolved without nested types in scope.
+            scope.pushType(typeSpec.declarationScope());
+            visitJavadoc(typeSpec.javadoc);
+            visitAnnotations(typeSpec.annotations);
+            visitTypeVariables(typeSpec.typeVariables);
+            if (typeSpec.kind == TypeSpec.Kind.INTERFACE)
+            {
+                visitAll(typeSpec.superinterfaces);
+            } else
+            {
+                if (!typeSpec.superclass.equals(ClassName.OBJECT))
+                {
+                    visit(typeSpec.superclass);
+                }
+                visitAll(typeSpec.superinterfaces);
+            }
+            scope.popType();
+        }
+
+        scope.pushType(typeSpec);
+        for (Map.Entry<String, TypeSpec> enumConstant : typeSpec.enumConstants.entrySet())
+        {
+            visit(enumConstant.getValue(), enumConstant.getKey());
+        }
+        for (FieldSpec fieldSpec : typeSpec.fieldSpecs)
+        {
+            if (fieldSpec.hasModifier(Modifier.STATIC)) visit(fieldSpec);
+        }
+        visit(typeSpec.staticBlock);
+        for (FieldSpec fieldSpec : typeSpec.fieldSpecs)
+        {
+            if (!fieldSpec.hasModifier(Modifier.STATIC)) visit(fieldSpec);
+        }
+        visit(typeSpec.initializerBlock);
+        for (MethodSpec methodSpec : typeSpec.methodSpecs)
+        {
+            if (methodSpec.isConstructor()) visit(methodSpec);
+        }
+        for (MethodSpec methodSpec : typeSpec.methodSpecs)
+        {
+            if (!methodSpec.isConstructor()) visit(methodSpec);
+        }
+        for (TypeSpec nested : typeSpec.typeSpecs)
+        {
+            visit(nested, null);
+        }
+        scope.popType();
+        scope.popTypeVariables(typeSpec.typeVariables);
+    }
+
+    private void visit(FieldSpec fieldSpec)
+    {
+        visitJavadoc(fieldSpec.javadoc);
+        visitAnnotations(fieldSpec.annotations);
+        visit(fieldSpec.type);
+        visit(fieldSpec.initializer);
+    }
+
+    private void visit(MethodSpec methodSpec)
+    {
+        visitJavadoc(methodSpec.javadocWithParameters());
+        visitAnnotations(methodSpec.annotations);
+        visitTypeVariables(methodSpec.typeVariables);
+        if (!methodSpec.isConstructor())
+        {
+            visit(methodSpec.returnType);
+        }
+        for (ParameterSpec parameter : methodSpec.parameters)
+        {
+            visitAnnotations(parameter.annotations);
+            visit(parameter.type);
+        }
+        if (methodSpec.defaultValue != null)
+        {
+            visit(methodSpec.defaultValue);
+        }
+        visitAll(methodSpec.exceptions);
+        visit(methodSpec.code);
+        scope.popTypeVariables(methodSpec.typeVariables);
+    }
+
+    private void visit(AnnotationSpec annotationSpec)
+    {
+        visit(annotationSpec.type);
+        for (List<CodeBlock> values : annotationSpec.members.values())
+        {
+            for (CodeBlock value : values)
+            {
+                visit(value);
+            }
+        }
+    }
+
+    private void visitAnnotations(List<AnnotationSpec> annotations)
+    {
+        for (AnnotationSpec annotationSpec : annotations)
+        {
+            visit(annotationSpec);
+        }
+    }
+
+    private void visitTypeVariables(List<TypeVariableName> typeVariables)
+    {
+        if (typeVariables.isEmpty()) return;
+        scope.pushTypeVariables(typeVariables);
+        for (TypeVariableName typeVariable : typeVariables)
+        {
+            visitAnnotations(typeVariable.annotations);
+            visitAll(typeVariable.bounds);
+        }
+    }
+
+    private void visitJavadoc(CodeBlock javadoc)
+    {
+        if (javadoc.isEmpty()) return;
+        scope.javadoc(true);
+        try
+        {
+            visit(javadoc);
+        } finally
+        {
+            scope.javadoc(false);
+        }
+    }
+
+    private void visit(CodeBlock codeBlock)
+    {
+        if (codeBlock.children == null)
+        {
+            visitParts(codeBlock);
+        } else
+        {
+            for (Iterator<CodeBlock> i = codeBlock.leaves(); i.hasNext(); )
+            {
+                visitParts(i.next());
+            }
+        }
+        visitDeferredType();
+    }
+
+    /**
+     * Visits the format parts of the leaf block {@code codeBlock}. Consecutive leaves are one
+     * sequence of parts, like in {@link CodeWriter#emit(CodeBlock)}.
+     */
+    private void visitParts(CodeBlock codeBlock)
+    {
+        byte[] opcodes = codeBlock.opcodes;
+        Object[] args = codeBlock.args;
+        int a = 0;
+        int t = 0;
+        for (int i = 0; i < opcodes.length; i++)
+        {
+            switch (opcodes[i])
+            {
+                case CodeBlock.TEXT:
+                    // A statically imported member makes the type reference disappear entirely.
+                    if (deferredTypeName != null
+                            && scope.isStaticImportMember(
+                            deferredTypeName.canonicalName, codeBlock.texts[t]))
+                    {
+                        deferredTypeName = null;
+                    }
+                    visitDeferredType();
+                    t++;
+                    break;
+
+                case CodeBlock.LITERAL:
+                    visitDeferredType();
+                    visitLiteral(args[a++]);
+                    break;
+
+                case CodeBlock.NAME:
+                case CodeBlock.STRING:
+                    visitDeferredType();
+                    a++;
+                    break;
+
+                case CodeBlock.TYPE:
+                    visitDeferredType();
+                    TypeName typeName = (TypeName) args[a++];
+                    if (typeName instanceof ClassName
+                            && (i + 1 == opcodes.length || opcodes[i + 1] == CodeBlock.TEXT)
+                            && scope.isStaticImportClass((ClassName) typeName))
+                    {
+                        deferredTypeName = (ClassName) typeName;
+                        break;
+                    }
+                    visit(typeName);
+                    break;
+
+                default:
+                    visitDeferredType();
+                    break;
+            }
+        }
+    }
+
+    private void visitDeferredType()
+    {
+        if (deferredTypeName == null) return;
+        ClassName typeName = deferredTypeName;
+        deferredTypeName = null;
+        visit(typeName);
+    }
+
+    private void visitLiteral(Object o)
+    {
+        if (o instanceof TypeSpec)
+        {
+            visit((TypeSpec) o, null);
+        } else if (o instanceof AnnotationSpec)
+        {
+            visit((AnnotationSpec) o);
+        } else if (o instanceof CodeBlock)
+        {
+            visit((CodeBlock) o);
+        }
+    }
+
+    private void visitAll(List<? extends TypeName> typeNames)
+    {
+        for (TypeName typeName : typeNames)
+        {
+            visit(typeName);
+        }
+    }
+
+    private void visit(TypeName typeName)
+    {
+        if (typeName instanceof ClassName)
+        {
+            visit((ClassName) typeName);
+        } else if (typeName instanceof ParameterizedTypeName)
+        {
+            ParameterizedTypeName parameterized = (ParameterizedTypeName) typeName;
+            if (parameterized.enclosingType != null)
+            {
+                visit(parameterized.enclosingType);
+                visitAnnotations(parameterized.annotations);
+            } else
+            {
+                visit(parameterized.rawType);
+            }
+            visitAll(parameterized.typeArguments);
+        } else if (typeName instanceof WildcardTypeName)
+        {
+            WildcardTypeName wildcard = (WildcardTypeName) typeName;
+            if (wildcard.lowerBounds.size() == 1)
+            {
+                visit(wildcard.lowerBounds.get(0));
+            } else if (!wildcard.upperBounds.get(0).equals(TypeName.OBJECT))
+            {
+                visit(wildcard.upperBounds.get(0));
+            }
+        } else if (typeName instanceof ArrayTypeName)
+        {
+            ArrayTypeName array = (ArrayTypeName) typeName;
+            TypeName leaf = array.componentType;
+            while (leaf instanceof ArrayTypeName)
+            {
+                leaf = ((ArrayTypeName) leaf).componentType;
+            }
+            visit(leaf);
+            for (TypeName t = array; t instanceof ArrayTypeName; t = ((ArrayTypeName) t).componentType)
+            {
+                visitAnnotations(t.annotations);
+            }
+        } else
+        {
+            // Primitives, void and type variables only carry annotations.
+            visitAnnotations(typeName.annotations);
+        }
+    }
+
+    private void visit(ClassName className)
+    {
+        // Like ClassName.emit(), only the outermost annotated enclosing class or the class itself is
+        // looked up; everything nested in it is written relative to that name.
+        List<ClassName> enclosingClasses = className.enclosingClasses();
+        boolean lookedUp = false;
+        for (ClassName c : enclosingClasses)
+        {
+            if (!lookedUp && (c.isAnnotated() || c == className))
+            {
+                scope.lookupName(c);
+                lookedUp = true;
+            }
+            if (lookedUp)
+            {
+                visitAnnotations(c.annotations);
+            }
+        }
+    }
+
+}
@@ -26,11 +26,15 @@ import java.net.URI;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -50,33 +54,29 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 public final class JavaFile
 {
 
-    private static final Appendable NULL_APPENDABLE = new Appendable()
-    {
-        @Override
-        public Appendable append(CharSequence charSequence)
-        {
-            return this;
-        }
-        @Override
-        public Appendable append(CharSequence charSequence, int start, int end)
-        {
-            return this;
-        }
-        @Override
-        public Appendable append(char c)
-        {
-            return this;
-        }
-    };
+    /**
+     * The most entries the constant pool of a class file can hold.
+     */
+    public static final int MAX_CONSTANT_POOL_SIZE = 65535;
 
     public final CodeBlock fileComment;
     public final String packageName;
     public final TypeSpec typeSpec;
     public final boolean skipJavaLangImports;
+    public final boolean explicitImports;
     private final Set<String> staticImports;
-    private final Set<String> imports;
+    /**
+     * The declared imports by canonical name. Values are null for names added to {@link
+     * Builder#imports} directly, rather than with {@link Builder#addImport}.
+     */
+    private final Map<String, ClassName> imports;
+    private final Map<String, ClassName> declaredImportedTypes;
     private final Set<String> alwaysQualify;
     private final String indent;
+    private final int columnLimit;
+    private final boolean wrapLines;
+    private final boolean compact;
+    private int cachedHashCode;
 
     private JavaFile(Builder builder)
     {
@@ -84,13 +84,27 @@ public final class JavaFile
         this.packageName = builder.packageName;
         this.typeSpec = builder.typeSpec;
         this.skipJavaLangImports = builder.skipJavaLangImports;
+        this.explicitImports = builder.explicitImports;
         this.staticImports = Util.immutableSet(builder.staticImports);
-        this.imports = Util.immutableSet(builder.imports);
         this.indent = builder.indent;
+        this.columnLimit = builder.columnLimit;
+        this.wrapLines = builder.wrapLines;
+        this.compact = builder.compact;
 
         Set<String> alwaysQualifiedNames = new LinkedHashSet<>();
         fillAlwaysQualifiedNames(builder.typeSpec, alwaysQualifiedNames);
         this.alwaysQualify = Util.immutableSet(alwaysQualifiedNames);
+
+        Map<String, ClassName> declaredImports = new LinkedHashMap<>();
+        for (String canonicalName : builder.imports)
+        {
+            declaredImports.put(canonicalName, builder.importedClasses.get(canonicalName));
+        }
+        fillDeclaredImports(builder.typeSpec, declaredImports);
+        this.imports = Util.immutableMap(declaredImports);
+        this.declaredImportedTypes = explicitImports
+                ? Util.immutableMap(declaredImportedTypes())
+                : Collections.emptyMap();
     }
     public static Builder builder(String packageName, TypeSpec typeSpec)
     {
@@ -106,17 +120,60 @@ public final class JavaFile
             fillAlwaysQualifiedNames(nested, alwaysQualifiedNames);
         }
     }
+    private void fillDeclaredImports(TypeSpec spec, Map<String, ClassName> declaredImports)
+    {
+        for (Map.Entry<String, ClassName> entry : spec.imports.entrySet())
+        {
+            if (declaredImports.get(entry.getKey()) == null)
+            {
+                declaredImports.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (TypeSpec nested : spec.typeSpecs)
+        {
+            fillDeclaredImports(nested, declaredImports);
+        }
+    }
+    /**
+     * Returns the declared imports keyed by simple name. On a simple name collision only the first
+     * import is used; types covered by the others are written fully qualified.
+     */
+    private Map<String, ClassName> declaredImportedTypes()
+    {
+        Map<String, ClassName> result = new LinkedHashMap<>();
+        for (Map.Entry<String, ClassName> entry : imports.entrySet())
+        {
+            // Names added to the imports directly only have their canonical name to go by.
+            ClassName className = entry.getValue() != null
+                    ? entry.getValue()
+                    : ClassName.bestGuess(entry.getKey());
+            if (className.packageName().isEmpty()
+                    || alwaysQualify.contains(className.simpleName)
+                    || className.simpleName.equals(typeSpec.name))
+            {
+                continue;
+            }
+            result.putIfAbsent(className.simpleName, className);
+        }
+        return result;
+    }
     public void writeTo(Appendable out) throws IOException
     {
-        // First pass: emit the entire class, just to collect the types we'll need to import.
-        CodeWriter importsCollector = new CodeWriter(
-                NULL_APPENDABLE,
-                indent,
-                staticImports,
-                alwaysQualify
-        );
-        emit(importsCollector);
-        Map<String, ClassName> suggestedImports = importsCollector.suggestedImports();
+        Map<String, ClassName> suggestedImports;
+        if (explicitImports)
+        {
+            // Single pass: the declared imports are all we use, anything else is fully qualified.
+            suggestedImports = declaredImportedTypes;
+        } else
+        {
+            // First pass: walk the type references only, just to collect the types we'll need to
+            // import.
+            suggestedImports = new ImportCollector(
+                    indent,
+                    staticImports,
+                    alwaysQualify
+            ).collect(packageName, fileComment, typeSpec);
+        }
 
         // Second pass: write the code, taking advantage of the imports.
         CodeWriter codeWriter = new CodeWriter(
@@ -124,8 +181,10 @@ public final class JavaFile
                 indent,
                 suggestedImports,
                 staticImports,
-                alwaysQualify
+                alwaysQualify,
+                wrapLines && !compact ? columnLimit : LineWrapper.NO_WRAPPING
         );
+        codeWriter.compact(compact);
         emit(codeWriter);
     }
     /**
@@ -230,17 +289,17 @@ public final class JavaFile
 
         if (!packageName.isEmpty())
         {
-            codeWriter.emit("package $L;\n", packageName);
-            codeWriter.emit("\n");
+            codeWriter.emit("package ").emit(packageName).emit(";\n");
+            codeWriter.emitBlankLine();
         }
 
         if (!staticImports.isEmpty())
         {
             for (String signature : staticImports)
             {
-                codeWriter.emit("import static $L;\n", signature);
+                codeWriter.emit("import static ").emit(signature).emit(";\n");
             }
-            codeWriter.emit("\n");
+            codeWriter.emitBlankLine();
         }
 
         int importedTypesCount = 0;
@@ -253,13 +312,13 @@ public final class JavaFile
             {
                 continue;
             }
-            codeWriter.emit("import $L;\n", className.withoutAnnotations());
+            codeWriter.emit("import ").emit(className.withoutAnnotations().toString()).emit(";\n");
             importedTypesCount++;
         }
 
         if (importedTypesCount > 0)
         {
-            codeWriter.emit("\n");
+            codeWriter.emitBlankLine();
         }
 
         typeSpec.emit(codeWriter, null, Collections.emptySet());
@@ -272,12 +331,33 @@ public final class JavaFile
         if (this == o) return true;
         if (o == null) return false;
         if (getClass() != o.getClass()) return false;
-        return toString().equals(o.toString());
+        JavaFile that = (JavaFile) o;
+        return hashCode() == that.hashCode()
+                && skipJavaLangImports == that.skipJavaLangImports
+                && explicitImports == that.explicitImports
+                && packageName.equals(that.packageName)
+                && indent.equals(that.indent)
+                && columnLimit == that.columnLimit
+                && wrapLines == that.wrapLines
+                && compact == that.compact
+                && fileComment.equals(that.fileComment)
+                && typeSpec.equals(that.typeSpec)
+                && staticImports.equals(that.staticImports)
+                && imports.equals(that.imports)
+                && alwaysQualify.equals(that.alwaysQualify);
     }
     @Override
     public int hashCode()
     {
-        return toString().hashCode();
+        int result = cachedHashCode;
+        if (result == 0)
+        {
+            result = Objects.hash(packageName, typeSpec, fileComment, indent, staticImports, imports,
+                    alwaysQualify, skipJavaLangImports, explicitImports, columnLimit, wrapLines,
+                    compact);
+            cachedHashCode = result;
+        }
+        return result;
     }
     @Override
     public String toString()
@@ -318,12 +398,65 @@ public final class JavaFile
             }
         };
     }
+    /**
+     * Returns this file if the constant pool of its class is estimated to fit in {@code
+     * maxConstantPoolSize} entries. Otherwise returns this file with the static fields and methods
+     * that don't fit moved out, followed by files for companion classes named {@code
+     * <Type>_Shard1}, {@code <Type>_Shard2} and so on that declare them. Every other member stays
+     * in the type.
+     *
+     * <p>Static members move together with the static members they refer to, and members that the
+     * rest of the type refers to aren't moved, so simple names keep resolving. Non-private static
+     * fields aren't moved either, so they stay constants. The type keeps a method with the same
+     * signature for every non-private method it loses, which calls the moved method.
+     *
+     * <p>Returns this file unchanged if its type has a superclass or superinterfaces, since moved
+     * code could refer to inherited static members by simple name, or if moving members wouldn't
+     * make the type fit, like a type that is mostly non-private constants.
+     *
+     * <p>The constant pool is estimated from the specs, so pass a limit well below {@link
+     * #MAX_CONSTANT_POOL_SIZE}.
+     */
+    public List<JavaFile> shard(int maxConstantPoolSize)
+    {
+        checkArgument(maxConstantPoolSize > 0, "maxConstantPoolSize <= 0: %s", maxConstantPoolSize);
+        List<TypeSpec> types = ClassSharder.shard(packageName, typeSpec, maxConstantPoolSize);
+        if (types.size() == 1) return Collections.singletonList(this);
+        List<JavaFile> result = new ArrayList<>(types.size());
+        for (TypeSpec type : types)
+        {
+            result.add(toBuilder(type).build());
+        }
+        return result;
+    }
+
     public Builder toBuilder()
+    {
+        return toBuilder(typeSpec);
+    }
+
+    /**
+     * Returns a builder for a file with this file's settings that declares {@code typeSpec}.
+     */
+    private Builder toBuilder(TypeSpec typeSpec)
     {
         Builder builder = new Builder(packageName, typeSpec);
         builder.fileComment.add(fileComment);
         builder.skipJavaLangImports = skipJavaLangImports;
+        builder.explicitImports = explicitImports;
+        builder.staticImports.addAll(staticImports);
+        for (Map.Entry<String, ClassName> entry : imports.entrySet())
+        {
+            builder.imports.add(entry.getKey());
+            if (entry.getValue() != null)
+            {
+                builder.importedClasses.put(entry.getKey(), entry.getValue());
+            }
+        }
         builder.indent = indent;
+        builder.columnLimit = columnLimit;
+        builder.wrapLines = wrapLines;
+        builder.compact = compact;
         return builder;
     }
 
@@ -332,11 +465,16 @@ public final class JavaFile
 
         public final Set<String> staticImports = new TreeSet<>();
         public final Set<String> imports = new TreeSet<>();
+        private final Map<String, ClassName> importedClasses = new HashMap<>();
         private final String packageName;
         private final TypeSpec typeSpec;
         private final CodeBlock.Builder fileComment = CodeBlock.builder();
         private boolean skipJavaLangImports;
+        private boolean explicitImports;
         private String indent = "  ";
+        private int columnLimit = LineWrapper.DEFAULT_COLUMN_LIMIT;
+        private boolean wrapLines = true;
+        private boolean compact;
 
         private Builder(String packageName, TypeSpec typeSpec)
         {
@@ -377,6 +515,7 @@ public final class JavaFile
         {
             checkArgument(className != null, "className == null");
             imports.add(className.canonicalName);
+            importedClasses.put(className.canonicalName, className);
             return this;
         }
 
@@ -394,12 +533,66 @@ public final class JavaFile
             return this;
         }
 
+        /**
+         * Call this to render in a single pass using only the imports declared with {@link
+         * #addImport(ClassName)} and {@link TypeSpec.Builder#addImport(ClassName)}.
+         *
+         * <p>By default, JavaPoet walks the type first to discover every type worth importing. When
+         * the imports are already known that walk is wasted work: in this mode the declared imports
+         * are emitted as-is and any type they don't cover is written fully qualified.
+         */
+        public Builder explicitImports(boolean explicitImports)
+        {
+            this.explicitImports = explicitImports;
+            return this;
+        }
+
         public Builder indent(String indent)
         {
             this.indent = indent;
             return this;
         }
 
+        /**
+         * Sets the column that statements are wrapped at when they contain {@code $W} or {@code $Z}.
+         * Defaults to 100.
+         */
+        public Builder columnLimit(int columnLimit)
+        {
+            checkArgument(columnLimit > 0, "columnLimit <= 0: %s", columnLimit);
+            this.columnLimit = columnLimit;
+            return this;
+        }
+
+        /**
+         * Call this with false to never wrap lines, such as when the source is only read by the
+         * compiler.
+         *
+         * <p>Without wrapping every {@code $W} is written as a space and every {@code $Z} is dropped,
+         * and the text is written straight through instead of being buffered to measure lines.
+         */
+        public Builder wrapLines(boolean wrapLines)
+        {
+            this.wrapLines = wrapLines;
+            return this;
+        }
+
+        /**
+         * Call this to render without the file comment, javadoc, indentation and blank lines
+         * between members, and without wrapping lines. This is for sources that only a compiler
+         * reads, like those of {@link JavaFile#toJavaFileObject()} compiled in memory: the output
+         * is smaller and compiles to the same classes. Javadoc with a {@code @deprecated} tag is
+         * replaced by {@code /** @deprecated *&#47;}, since javac reads the tag.
+         *
+         * <p>Comments added to code blocks with {@link MethodSpec.Builder#addComment} are part of
+         * the code and are kept.
+         */
+        public Builder compact(boolean compact)
+        {
+            this.compact = compact;
+            return this;
+        }
+
         public JavaFile build()
         {
             return new JavaFile(this);
@@ -18,6 +18,7 @@ package com.zeoflow.jx.file;
 
 import java.io.IOException;
 
+import static com.zeoflow.jx.file.Util.checkArgument;
 import static com.zeoflow.jx.file.Util.checkNotNull;
 
 /**
@@ -27,6 +28,16 @@ import static com.zeoflow.jx.file.Util.checkNotNull;
 final class LineWrapper
 {
 
+    /**
+     * The column limit used unless another one is configured.
+     */
+    static final int DEFAULT_COLUMN_LIMIT = 100;
+    /**
+     * A column limit that turns wrapping off: text passes straight through, every wrapping space is
+     * a space and zero-width spaces are dropped.
+     */
+    static final int NO_WRAPPING = 0;
+
     private final RecordingAppendable out;
     private final String indent;
     private final int columnLimit;
@@ -45,6 +56,11 @@ final class LineWrapper
      */
     private int indentLevel = -1;
 
+    /**
+     * {@code indent} repeated for each indent level seen so far, indexed by level.
+     */
+    private String[] indentations = {""};
+
     /**
      * Null if we have no buffering; otherwise the type to pass to the next call to {@link #flush}.
      */
@@ -53,6 +69,8 @@ final class LineWrapper
     LineWrapper(Appendable out, String indent, int columnLimit)
     {
         checkNotNull(out, "out == null");
+        checkArgument(columnLimit > 0 || columnLimit == NO_WRAPPING, "invalid column limit: %s",
+                columnLimit);
         this.out = new RecordingAppendable(out);
         this.indent = indent;
         this.columnLimit = columnLimit;
@@ -70,32 +88,91 @@ final class LineWrapper
      * Emit {@code s}. This may be buffered to permit line wraps to be inserted.
      */
     void append(String s) throws IOException
+    {
+        append(s, 0, s.length());
+    }
+
+    /**
+     * Emit the characters of {@code s} from {@code start} to {@code end}, without copying them out
+     * of {@code s} first. This may be buffered to permit line wraps to be inserted.
+     */
+    void append(CharSequence s, int start, int end) throws IOException
     {
         if (closed) throw new IllegalStateException("closed");
 
+        if (columnLimit == NO_WRAPPING)
+        {
+            out.append(s, start, end);
+            return;
+        }
+
+        int length = end - start;
         if (nextFlush != null)
         {
-            int nextNewline = s.indexOf('\n');
+            int nextNewline = indexOfNewline(s, start, end);
 
             // If s doesn't cause the current line to cross the limit, buffer it and return. We'll decide
             // whether or not we have to wrap it later.
-            if (nextNewline == -1 && column + s.length() <= columnLimit)
+            if (nextNewline == -1 && column + length <= columnLimit)
             {
-                buffer.append(s);
-                column += s.length();
+                buffer.append(s, start, end);
+                column += length;
                 return;
             }
 
             // Wrap if appending s would overflow the current line.
-            boolean wrap = nextNewline == -1 || column + nextNewline > columnLimit;
+            boolean wrap = nextNewline == -1 || column + nextNewline - start > columnLimit;
             flush(wrap ? FlushType.WRAP : nextFlush);
         }
 
-        out.append(s);
-        int lastNewline = s.lastIndexOf('\n');
+        out.append(s, start, end);
+        int lastNewline = lastIndexOfNewline(s, start, end);
         column = lastNewline != -1
-                ? s.length() - lastNewline - 1
-                : column + s.length();
+                ? end - lastNewline - 1
+                : column + length;
+    }
+
+    /**
+     * Returns {@code indent} repeated {@code level} times.
+     */
+    String indentation(int level)
+    {
+        if (level >= indentations.length)
+        {
+            String[] grown = new String[Math.max(level + 1, indentations.length * 2)];
+            System.arraycopy(indentations, 0, grown, 0, indentations.length);
+            indentations = grown;
+        }
+        String result = indentations[level];
+        if (result == null)
+        {
+            StringBuilder builder = new StringBuilder(indent.length() * level);
+            for (int i = 0; i < level; i++)
+            {
+                builder.append(indent);
+            }
+            result = builder.toString();
+            indentations[level] = result;
+        }
+        return result;
+    }
+
+    private static int indexOfNewline(CharSequence s, int start, int end)
+    {
+        for (int i = start; i < end; i++)
+        {
+            if (s.charAt(i) == '\n') return i;
+        }
+        return -1;
+    }
+
+    private static int lastIndexOfNewline(CharSequence s, int start, int end)
+    {
+        for (int i = end - 1; i >= start; i--)
+        {
+            if (s.charAt(i) == '\n') return i;
+        }
+        return -1;
     }
 
     /**
@@ -105,6 +182,12 @@ final class LineWrapper
     {
         if (closed) throw new IllegalStateException("closed");
 
+        if (columnLimit == NO_WRAPPING)
+        {
+            out.append(' ');
+            return;
+        }
+
         if (this.nextFlush != null) flush(nextFlush);
         column++; // Increment the column even though the space is deferred to next call to flush().
         this.nextFlush = FlushType.SPACE;
@@ -118,7 +201,7 @@ final class LineWrapper
     {
         if (closed) throw new IllegalStateException("closed");
 
-        if (column == 0) return;
+        if (columnLimit == NO_WRAPPING || column == 0) return;
         if (this.nextFlush != null) flush(nextFlush);
         this.nextFlush = FlushType.EMPTY;
         this.indentLevel = indentLevel;
@@ -142,10 +225,7 @@ final class LineWrapper
         {
             case WRAP:
                 out.append('\n');
-                for (int i = 0; i < indentLevel; i++)
-                {
-                    out.append(indent);
-                }
+                out.append(indentation(indentLevel));
                 column = indentLevel * indent.length();
                 column += buffer.length();
                 break;
@@ -198,8 +278,11 @@ final class LineWrapper
         @Override
         public Appendable append(CharSequence csq, int start, int end) throws IOException
         {
-            CharSequence sub = csq.subSequence(start, end);
-            return append(sub);
+            if (end > start)
+            {
+                lastChar = csq.charAt(end - 1);
+            }
+            return delegate.append(csq, start, end);
         }
 
         @Override
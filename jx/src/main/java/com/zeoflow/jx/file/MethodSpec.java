@@ -20,21 +20,26 @@ import javax.lang.model.SourceVersion;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
 import javax.lang.model.element.TypeParameterElement;
+import javax.lang.model.element.VariableElement;
 import javax.lang.model.type.DeclaredType;
 import javax.lang.model.type.ExecutableType;
 import javax.lang.model.type.TypeMirror;
 import javax.lang.model.type.TypeVariable;
+import javax.lang.model.util.ElementFilter;
 import javax.lang.model.util.Types;
 
 import java.io.IOException;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 
 import static com.zeoflow.jx.file.Util.checkArgument;
@@ -47,6 +52,11 @@ import static com.zeoflow.jx.file.Util.checkState;
 public final class MethodSpec
 {
 
+    /**
+     * The most bytes of bytecode HotSpot compiles a method with by default. Larger methods are always
+     * interpreted.
+     */
+    public static final int HUGE_METHOD_LIMIT = 8000;
     static final String CONSTRUCTOR = "<init>";
 
     public final String name;
@@ -60,6 +70,7 @@ public final class MethodSpec
     public final List<TypeName> exceptions;
     public final CodeBlock code;
     public final CodeBlock defaultValue;
+    private int cachedHashCode;
 
     private MethodSpec(Builder builder)
     {
@@ -99,6 +110,24 @@ public final class MethodSpec
      * parameters of the overridden method. Since JavaPoet 1.8 annotations must be added separately.
      */
     public static Builder overriding(ExecutableElement method)
+    {
+        Builder methodBuilder = overridingDeclaration(method);
+        methodBuilder.returns(TypeName.get(method.getReturnType()));
+        methodBuilder.addParameters(ParameterSpec.parametersOf(method));
+        methodBuilder.varargs(method.isVarArgs());
+
+        for (TypeMirror thrownType : method.getThrownTypes())
+        {
+            methodBuilder.addException(TypeName.get(thrownType));
+        }
+
+        return methodBuilder;
+    }
+    /**
+     * Returns a builder for {@code method}'s name, {@link Override} annotation, modifiers and type
+     * variables.
+     */
+    private static Builder overridingDeclaration(ExecutableElement method)
     {
         checkNotNull(method, "method == null");
 
@@ -131,16 +160,6 @@ public final class MethodSpec
             TypeVariable var = (TypeVariable) typeParameterElement.asType();
             methodBuilder.addTypeVariable(TypeVariableName.get(var));
         }
-
-        methodBuilder.returns(TypeName.get(method.getReturnType()));
-        methodBuilder.addParameters(ParameterSpec.parametersOf(method));
-        methodBuilder.varargs(method.isVarArgs());
-
-        for (TypeMirror thrownType : method.getThrownTypes())
-        {
-            methodBuilder.addException(TypeName.get(thrownType));
-        }
-
         return methodBuilder;
     }
     /**
@@ -159,24 +178,66 @@ public final class MethodSpec
             ExecutableElement method, DeclaredType enclosing, Types types)
     {
         ExecutableType executableType = (ExecutableType) types.asMemberOf(enclosing, method);
-        List<? extends TypeMirror> resolvedParameterTypes = executableType.getParameterTypes();
-        List<? extends TypeMirror> resolvedThrownTypes = executableType.getThrownTypes();
-        TypeMirror resolvedReturnType = executableType.getReturnType();
-
-        Builder builder = overriding(method);
-        builder.returns(TypeName.get(resolvedReturnType));
-        for (int i = 0, size = builder.parameters.size(); i < size; i++)
+        return overriding(method, executableType);
+    }
+    /**
+     * Returns new method spec builders that override the methods declared by {@code type} as
+     * members of {@code enclosing}, like {@link #overriding(ExecutableElement, DeclaredType, Types)}
+     * does for each of them. Private, static and final methods are skipped.
+     *
+     * <p>Type names are converted once for all methods: if no {@link TypeMirrorCache} is open on
+     * this thread, one is open while the methods are converted.
+     */
+    public static List<Builder> overridingAll(TypeElement type, DeclaredType enclosing, Types types)
+    {
+        checkNotNull(type, "type == null");
+        checkNotNull(enclosing, "enclosing == null");
+        checkNotNull(types, "types == null");
+        TypeMirrorCache cache = TypeMirrorCache.current() == null ? TypeMirrorCache.open() : null;
+        try
+        {
+            List<Builder> result = new ArrayList<>();
+            for (ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements()))
+            {
+                Set<Modifier> modifiers = method.getModifiers();
+                if (modifiers.contains(Modifier.PRIVATE)
+                        || modifiers.contains(Modifier.FINAL)
+                        || modifiers.contains(Modifier.STATIC))
+                {
+                    continue;
+                }
+                ExecutableType executableType = (ExecutableType) types.asMemberOf(enclosing, method);
+                result.add(overriding(method, executableType));
+            }
+            return result;
+        } finally
+        {
+            if (cache != null) cache.close();
+        }
+    }
+    /**
+     * Returns a builder that overrides {@code method} with the signature {@code executableType} it
+     * has as a member of some type.
+     */
+    private static Builder overriding(ExecutableElement method, ExecutableType executableType)
+    {
+        Builder builder = overridingDeclaration(method);
+        builder.returns(TypeName.get(executableType.getReturnType()));
+        List<? extends VariableElement> parameters = method.getParameters();
+        List<? extends TypeMirror> parameterTypes = executableType.getParameterTypes();
+        for (int i = 0, size = parameters.size(); i < size; i++)
         {
-            ParameterSpec parameter = builder.parameters.get(i);
-            TypeName type = TypeName.get(resolvedParameterTypes.get(i));
-            builder.parameters.set(i, parameter.toBuilder(type, parameter.name).build());
+            VariableElement parameter = parameters.get(i);
+            TypeName type = TypeName.get(parameterTypes.get(i));
+            builder.addParameter(ParameterSpec.builder(type, parameter.getSimpleName().toString())
+                    .addModifiers(parameter.getModifiers())
+                    .build());
         }
-        builder.exceptions.clear();
-        for (int i = 0, size = resolvedThrownTypes.size(); i < size; i++)
+        builder.varargs(method.isVarArgs());
+        for (TypeMirror thrownType : executableType.getThrownTypes())
         {
-            builder.addException(TypeName.get(resolvedThrownTypes.get(i)));
+            builder.addException(TypeName.get(thrownType));
         }
-
         return builder;
     }
     private boolean lastParameterIsArray(List<ParameterSpec> parameters)
@@ -215,10 +276,10 @@ public final class MethodSpec
 
         if (isConstructor())
         {
-            codeWriter.emit("$L($Z", enclosingName);
+            codeWriter.emit(enclosingName).emit("(").emitZeroWidthSpace();
         } else
         {
-            codeWriter.emit("$T $L($Z", returnType, name);
+            codeWriter.emitType(returnType).emit(" ").emit(name).emit("(").emitZeroWidthSpace();
         }
 
         boolean firstParameter = true;
@@ -245,7 +306,7 @@ public final class MethodSpec
             for (TypeName exception : exceptions)
             {
                 if (!firstException) codeWriter.emit(",");
-                codeWriter.emitWrappingSpace().emit("$T", exception);
+                codeWriter.emitWrappingSpace().emitType(exception);
                 firstException = false;
             }
         }
@@ -270,7 +331,7 @@ public final class MethodSpec
         }
         codeWriter.popTypeVariables(typeVariables);
     }
-    private CodeBlock javadocWithParameters()
+    CodeBlock javadocWithParameters()
     {
         CodeBlock.Builder builder = javadoc.toBuilder();
         boolean emitTagNewline = true;
@@ -294,18 +355,115 @@ public final class MethodSpec
     {
         return name.equals(CONSTRUCTOR);
     }
+    /**
+     * Returns this method followed by private helper methods, with this method's body split among
+     * them if its estimated bytecode is larger than {@code maxBytecodeSize}. The method calls the
+     * helpers in order, passing its parameters along, before running what is left of its body.
+     *
+     * <p>The body is only split between top-level lines, never inside a statement or a control flow.
+     * The lines moved into helpers must not declare local variables used later, return, or assign
+     * final fields. Constructors are never split.
+     *
+     * <p>Helpers are named {@code <name>$1}, {@code <name>$2} and so on. They are private, which
+     * interfaces only allow since Java 9. Use {@link TypeSpec.Builder#splitLargeMethods} to also
+     * avoid the names of the other methods of the type.
+     *
+     * @see #HUGE_METHOD_LIMIT
+     */
+    public List<MethodSpec> split(int maxBytecodeSize)
+    {
+        return split(maxBytecodeSize, new HashSet<>(Collections.singleton(name)));
+    }
+    /**
+     * Splits this method like {@link #split(int)}, naming helpers after none of {@code
+     * methodNames} and adding their names to it.
+     */
+    List<MethodSpec> split(int maxBytecodeSize, Set<String> methodNames)
+    {
+        checkArgument(maxBytecodeSize > 0, "maxBytecodeSize <= 0: %s", maxBytecodeSize);
+        if (isConstructor() || code.isEmpty()) return Collections.singletonList(this);
+        List<CodeBlock> chunks = code.split(maxBytecodeSize);
+        if (chunks.size() == 1) return Collections.singletonList(this);
+
+        CodeBlock arguments = parameters.stream()
+                .map(parameter -> CodeBlock.of("$N", parameter))
+                .collect(CodeBlock.joining(", "));
+        List<MethodSpec> helpers = new ArrayList<>();
+        Builder method = toBuilder();
+        method.code.clear();
+        for (int i = 0; i < chunks.size() - 1; i++)
+        {
+            String helperName = newHelperName(name, methodNames);
+            Builder helper = methodBuilder(helperName)
+                    .addModifiers(Modifier.PRIVATE)
+                    .addTypeVariables(typeVariables)
+                    .addParameters(parameters)
+                    .varargs(varargs)
+                    .addExceptions(exceptions)
+                    .addCode(chunks.get(i));
+            if (hasModifier(Modifier.STATIC)) helper.addModifiers(Modifier.STATIC);
+            helpers.add(helper.build());
+            method.addStatement("$N($L)", helperName, arguments);
+        }
+        method.addCode(chunks.get(chunks.size() - 1));
+
+        List<MethodSpec> result = new ArrayList<>();
+        result.add(method.build());
+        result.addAll(helpers);
+        return result;
+    }
+    /**
+     * Returns the first of {@code <prefix>$1}, {@code <prefix>$2} and so on that isn't in {@code
+     * methodNames}, after adding it there.
+     */
+    static String newHelperName(String prefix, Set<String> methodNames)
+    {
+        for (int i = 1; ; i++)
+        {
+            String result = prefix + "$" + i;
+            if (methodNames.add(result)) return result;
+        }
+    }
     @Override
     public boolean equals(Object o)
     {
         if (this == o) return true;
         if (o == null) return false;
         if (getClass() != o.getClass()) return false;
-        return toString().equals(o.toString());
+        MethodSpec that = (MethodSpec) o;
+        if (hashCode() != that.hashCode()
+                || varargs != that.varargs
+                || !name.equals(that.name)
+                || !Objects.equals(returnType, that.returnType)
+                || !parameters.equals(that.parameters)
+                || !modifiers.equals(that.modifiers)
+                || !Util.typeVariablesEqual(typeVariables, that.typeVariables)
+                || !exceptions.equals(that.exceptions)
+                || !annotations.equals(that.annotations)
+                || !javadoc.equals(that.javadoc)
+                || !code.equals(that.code)
+                || !Objects.equals(defaultValue, that.defaultValue))
+        {
+            return false;
+        }
+        // Parameter javadoc is emitted as part of the method javadoc.
+        for (int i = 0, size = parameters.size(); i < size; i++)
+        {
+            if (!parameters.get(i).javadoc.equals(that.parameters.get(i).javadoc)) return false;
+        }
+        return true;
     }
     @Override
     public int hashCode()
     {
-        return toString().hashCode();
+        int result = cachedHashCode;
+        if (result == 0)
+        {
+            result = Objects.hash(name, returnType, parameters, modifiers, typeVariables, exceptions,
+                    annotations, javadoc, code, defaultValue, varargs);
+            cachedHashCode = result;
+        }
+        return result;
     }
     @Override
     public String toString()
@@ -18,11 +18,10 @@ package com.zeoflow.jx.file;
 
 import javax.lang.model.SourceVersion;
 
-import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.UUID;
 
 import static com.zeoflow.jx.file.Util.checkNotNull;
 
@@ -78,24 +77,32 @@ import static com.zeoflow.jx.file.Util.checkNotNull;
  *
  * <p>When dealing with multiple independent inner scopes, use a {@link #clone()} of the
  * NameAllocator used for the outer scope to further refine name allocation for a specific inner
- * scope.
+ * scope. Cloning takes constant time: the names allocated so far are shared by the allocator and
+ * its clone, and only names allocated afterwards are kept separately.
  */
 public final class NameAllocator implements Cloneable
 {
 
-    private final Set<String> allocatedNames;
-    private final Map<Object, String> tagToName;
+    /**
+     * The most scopes in a chain. Longer chains are flattened into a single scope, so lookups don't
+     * get slower with every clone.
+     */
+    private static final int MAX_DEPTH = 8;
+
+    /**
+     * The names allocated since this allocator was created or last cloned. It is only ever written
+     * by this allocator; its parents are shared and never written again.
+     */
+    private Scope scope;
 
     public NameAllocator()
     {
-        this(new LinkedHashSet<>(), new LinkedHashMap<>());
+        this(new Scope(null));
     }
 
-    private NameAllocator(LinkedHashSet<String> allocatedNames,
-                          LinkedHashMap<Object, String> tagToName)
+    private NameAllocator(Scope scope)
     {
-        this.allocatedNames = allocatedNames;
-        this.tagToName = tagToName;
+        this.scope = scope;
     }
     public static String toJavaIdentifier(String suggestion)
     {
@@ -122,7 +129,8 @@ public final class NameAllocator implements Cloneable
      */
     public String newName(String suggestion)
     {
-        return newName(suggestion, UUID.randomUUID().toString());
+        checkNotNull(suggestion, "suggestion");
+        return allocate(toJavaIdentifier(suggestion));
     }
     /**
      * Return a new name using {@code suggestion} that will not be a Java identifier or clash with
@@ -134,29 +142,75 @@ public final class NameAllocator implements Cloneable
         checkNotNull(suggestion, "suggestion");
         checkNotNull(tag, "tag");
 
-        suggestion = toJavaIdentifier(suggestion);
+        suggestion = allocate(toJavaIdentifier(suggestion));
 
-        while (SourceVersion.isKeyword(suggestion) || !allocatedNames.add(suggestion))
-        {
-            suggestion = suggestion + "_";
-        }
-
-        String replaced = tagToName.put(tag, suggestion);
+        String replaced = nameOf(tag);
         if (replaced != null)
         {
-            tagToName.put(tag, replaced); // Put things back as they were!
             throw new IllegalArgumentException("tag " + tag + " cannot be used for both '" + replaced
                     + "' and '" + suggestion + "'");
         }
+        scope.tagToName.put(tag, suggestion);
 
         return suggestion;
     }
+    /**
+     * Allocates {@code identifier} followed by the fewest underscores that make it a free name that
+     * isn't a keyword. Earlier allocations of {@code identifier} are remembered, so names that were
+     * already taken aren't checked again.
+     */
+    private String allocate(String identifier)
+    {
+        int underscores = 0;
+        for (Scope s = scope; s != null; s = s.parent)
+        {
+            Integer next = s.nextUnderscores.get(identifier);
+            if (next != null)
+            {
+                underscores = next;
+                break;
+            }
+        }
+
+        StringBuilder name = new StringBuilder(identifier.length() + underscores).append(identifier);
+        for (int i = 0; i < underscores; i++)
+        {
+            name.append('_');
+        }
+        String result = name.toString();
+        while (SourceVersion.isKeyword(result) || isAllocated(result))
+        {
+            result = name.append('_').toString();
+            underscores++;
+        }
+
+        scope.allocatedNames.add(result);
+        scope.nextUnderscores.put(identifier, underscores + 1);
+        return result;
+    }
+    private boolean isAllocated(String name)
+    {
+        for (Scope s = scope; s != null; s = s.parent)
+        {
+            if (s.allocatedNames.contains(name)) return true;
+        }
+        return false;
+    }
+    private String nameOf(Object tag)
+    {
+        for (Scope s = scope; s != null; s = s.parent)
+        {
+            String result = s.tagToName.get(tag);
+            if (result != null) return result;
+        }
+        return null;
+    }
     /**
      * Retrieve a name created with {@link #newName(String, Object)}.
      */
     public String get(Object tag)
     {
-        String result = tagToName.get(tag);
+        String result = nameOf(tag);
         if (result == null)
         {
             throw new IllegalArgumentException("unknown tag: " + tag);
@@ -165,18 +219,63 @@ public final class NameAllocator implements Cloneable
     }
 
     /**
-     * Create a deep copy of this NameAllocator. Useful to create multiple independent refinements
+     * Create a copy of this NameAllocator. Useful to create multiple independent refinements
      * of a NameAllocator to be used in the respective definition of multiples, independently-scoped,
-     * inner code blocks.
+     * inner code blocks. Names allocated by the copy are not seen by this allocator, and vice versa.
      *
-     * @return A deep copy of this NameAllocator.
+     * @return A copy of this NameAllocator.
      */
     @Override
     public NameAllocator clone()
     {
-        return new NameAllocator(
-                new LinkedHashSet<>(this.allocatedNames),
-                new LinkedHashMap<>(this.tagToName));
+        // Share the names allocated so far, and start a new scope on both sides.
+        Scope shared = scope.isEmpty() ? scope.parent : scope;
+        if (shared != null && shared.depth >= MAX_DEPTH)
+        {
+            shared = shared.flatten();
+        }
+        this.scope = new Scope(shared);
+        return new NameAllocator(new Scope(shared));
+    }
+
+    /**
+     * Names and tags allocated in one scope. Lookups continue in the parent scope.
+     */
+    private static final class Scope
+    {
+
+        final Scope parent;
+        final int depth;
+        final Set<String> allocatedNames = new HashSet<>();
+        final Map<Object, String> tagToName = new HashMap<>();
+        /**
+         * The number of underscores to try first when a suggestion is allocated again.
+         */
+        final Map<String, Integer> nextUnderscores = new HashMap<>();
+
+        Scope(Scope parent)
+        {
+            this.parent = parent;
+            this.depth = parent != null ? parent.depth + 1 : 1;
+        }
+
+        boolean isEmpty()
+        {
+            return allocatedNames.isEmpty() && tagToName.isEmpty();
+        }
+
+        /**
+         * Returns a scope without a parent that holds everything in this scope and its parents.
+         */
+        Scope flatten()
+        {
+            Scope result = parent != null ? parent.flatten() : new Scope(null);
+            result.allocatedNames.addAll(allocatedNames);
+            result.tagToName.putAll(tagToName);
+            result.nextUnderscores.putAll(nextUnderscores);
+            return result;
+        }
+
     }
 
 }
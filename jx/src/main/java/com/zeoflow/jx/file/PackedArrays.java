@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2021 ZeoFlow SRL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zeoflow.jx.file;
+
+import javax.lang.model.element.Modifier;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.zeoflow.jx.file.Util.checkNotNull;
+
+/**
+ * Generates methods that return large primitive arrays. An array initializer like {@code {1, 2,
+ * 3}} compiles to a few instructions per element, so big tables overflow the 64 KiB limit of a
+ * method and are slow to initialize. Instead, the values are packed into string constants that a
+ * generated method decodes: <pre>   {@code
+ *
+ *   MethodSpec decodeTable = PackedArrays.decoder("decodeTable", table);
+ *   TypeSpec tables = TypeSpec.classBuilder("Tables")
+ *       .addField(FieldSpec.builder(int[].class, "TABLE", Modifier.STATIC, Modifier.FINAL)
+ *           .initializer("$N()", decodeTable)
+ *           .build())
+ *       .addMethod(decodeTable)
+ *       .build();
+ * }</pre>
+ *
+ * <p>The values are written big-endian, 6 bits per character, using the ASCII characters {@code
+ * '0'} to {@code 'o'}. The data is split over as many string constants as needed to keep each one
+ * within the class file limit.
+ */
+public final class PackedArrays
+{
+
+    /**
+     * The characters per string constant. Every character takes a single byte in the constant pool.
+     */
+    private static final int CHARS_PER_CONSTANT = Util.MAX_STRING_CONSTANT_BYTES;
+
+    private PackedArrays()
+    {
+    }
+
+    /**
+     * Returns a private static method named {@code name} that returns a copy of {@code values}.
+     */
+    public static MethodSpec decoder(String name, byte[] values)
+    {
+        checkNotNull(values, "values == null");
+        return decoder(name, TypeName.BYTE, values.length, null, values);
+    }
+
+    public static MethodSpec decoder(String name, short[] values)
+    {
+        checkNotNull(values, "values == null");
+        ByteBuffer bytes = ByteBuffer.allocate(values.length * Short.BYTES);
+        bytes.asShortBuffer().put(values);
+        return decoder(name, TypeName.SHORT, values.length, "Short", bytes.array());
+    }
+
+    public static MethodSpec decoder(String name, char[] values)
+    {
+        checkNotNull(values, "values == null");
+        ByteBuffer bytes = ByteBuffer.allocate(values.length * Character.BYTES);
+        bytes.asCharBuffer().put(values);
+        return decoder(name, TypeName.CHAR, values.length, "Char", bytes.array());
+    }
+
+    public static MethodSpec decoder(String name, int[] values)
+    {
+        checkNotNull(values, "values == null");
+        ByteBuffer bytes = ByteBuffer.allocate(values.length * Integer.BYTES);
+        bytes.asIntBuffer().put(values);
+        return decoder(name, TypeName.INT, values.length, "Int", bytes.array());
+    }
+
+    public static MethodSpec decoder(String name, long[] values)
+    {
+        checkNotNull(values, "values == null");
+        ByteBuffer bytes = ByteBuffer.allocate(values.length * Long.BYTES);
+        bytes.asLongBuffer().put(values);
+        return decoder(name, TypeName.LONG, values.length, "Long", bytes.array());
+    }
+
+    public static MethodSpec decoder(String name, float[] values)
+    {
+        checkNotNull(values, "values == null");
+        ByteBuffer bytes = ByteBuffer.allocate(values.length * Float.BYTES);
+        bytes.asFloatBuffer().put(values);
+        return decoder(name, TypeName.FLOAT, values.length, "Float", bytes.array());
+    }
+
+    public static MethodSpec decoder(String name, double[] values)
+    {
+        checkNotNull(values, "values == null");
+        ByteBuffer bytes = ByteBuffer.allocate(values.length * Double.BYTES);
+        bytes.asDoubleBuffer().put(values);
+        return decoder(name, TypeName.DOUBLE, values.length, "Double", bytes.array());
+    }
+
+    /**
+     * Returns a method that decodes {@code bytes} and views them as {@code length} values of {@code
+     * componentType}, using the {@code ByteBuffer.as<bufferKind>Buffer()} view. Bytes are returned
+     * as they are if {@code bufferKind} is null.
+     */
+    private static MethodSpec decoder(String name, TypeName componentType, int length,
+                                      String bufferKind, byte[] bytes)
+    {
+        CodeBlock.Builder data = CodeBlock.builder().add("$T[] data = {\n$>", String.class);
+        for (String constant : encode(bytes))
+        {
+            data.add("$S,\n", constant);
+        }
+        data.add("$<};\n");
+
+        MethodSpec.Builder result = MethodSpec.methodBuilder(name)
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(ArrayTypeName.of(componentType))
+                .addCode(data.build())
+                .addStatement("byte[] bytes = new byte[$L]", bytes.length)
+                .addStatement("int b = 0")
+                .addStatement("int buffer = 0")
+                .addStatement("int bufferBits = 0")
+                .beginControlFlow("for ($T part : data)", String.class)
+                .beginControlFlow("for (int i = 0; i < part.length(); i++)")
+                .addStatement("buffer = (buffer << 6) | (part.charAt(i) - '0')")
+                .addStatement("bufferBits += 6")
+                .beginControlFlow("if (bufferBits >= 8)")
+                .addStatement("bufferBits -= 8")
+                .addStatement("bytes[b++] = (byte) (buffer >> bufferBits)")
+                .endControlFlow()
+                .endControlFlow()
+                .endControlFlow();
+        if (bufferKind == null)
+        {
+            return result.addStatement("return bytes").build();
+        }
+        return result
+                .addStatement("$T[] result = new $T[$L]", componentType, componentType, length)
+                .addStatement("$T.wrap(bytes).as$LBuffer().get(result)", ByteBuffer.class, bufferKind)
+                .addStatement("return result")
+                .build();
+    }
+
+    /**
+     * Returns {@code bytes} as 6-bit characters starting at {@code '0'}, split into string
+     * constants. The last character is padded with zero bits.
+     */
+    private static List<String> encode(byte[] bytes)
+    {
+        List<String> result = new ArrayList<>();
+        StringBuilder constant = new StringBuilder();
+        int buffer = 0;
+        int bufferBits = 0;
+        for (int i = 0; i <= bytes.length; i++)
+        {
+            if (i < bytes.length)
+            {
+                buffer = (buffer << 8) | (bytes[i] & 0xff);
+                bufferBits += 8;
+            } else if (bufferBits > 0)
+            {
+                buffer <<= 6 - bufferBits;
+                bufferBits = 6;
+            }
+            while (bufferBits >= 6)
+            {
+                bufferBits -= 6;
+                constant.append((char) ('0' + ((buffer >> bufferBits) & 0x3f)));
+                if (constant.length() == CHARS_PER_CONSTANT)
+                {
+                    result.add(constant.toString());
+                    constant.setLength(0);
+                }
+            }
+        }
+        if (constant.length() > 0)
+        {
+            result.add(constant.toString());
+        }
+        return result;
+    }
+
+}
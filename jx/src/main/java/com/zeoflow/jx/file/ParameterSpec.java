@@ -27,6 +27,7 @@ import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 
 import static com.zeoflow.jx.file.Util.checkArgument;
@@ -43,6 +44,7 @@ public final class ParameterSpec
     public final Set<Modifier> modifiers;
     public final TypeName type;
     public final CodeBlock javadoc;
+    private int cachedHashCode;
 
     private ParameterSpec(Builder builder)
     {
@@ -109,7 +111,7 @@ public final class ParameterSpec
         {
             type.emit(codeWriter);
         }
-        codeWriter.emit(" $L", name);
+        codeWriter.emit(" ").emit(name);
     }
     @Override
     public boolean equals(Object o)
@@ -117,12 +119,23 @@ public final class ParameterSpec
         if (this == o) return true;
         if (o == null) return false;
         if (getClass() != o.getClass()) return false;
-        return toString().equals(o.toString());
+        ParameterSpec that = (ParameterSpec) o;
+        return hashCode() == that.hashCode()
+                && name.equals(that.name)
+                && type.equals(that.type)
+                && modifiers.equals(that.modifiers)
+                && annotations.equals(that.annotations);
     }
     @Override
     public int hashCode()
     {
-        return toString().hashCode();
+        int result = cachedHashCode;
+        if (result == 0)
+        {
+            result = Objects.hash(name, type, modifiers, annotations);
+            cachedHashCode = result;
+        }
+        return result;
     }
     @Override
     public String toString()
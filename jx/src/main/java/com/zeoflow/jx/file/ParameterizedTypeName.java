@@ -22,9 +22,11 @@ import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 import static com.zeoflow.jx.file.Util.checkArgument;
 import static com.zeoflow.jx.file.Util.checkNotNull;
@@ -34,7 +36,7 @@ public final class ParameterizedTypeName extends TypeName
 
     public final ClassName rawType;
     public final List<TypeName> typeArguments;
-    private final ParameterizedTypeName enclosingType;
+    final ParameterizedTypeName enclosingType;
 
     ParameterizedTypeName(ParameterizedTypeName enclosingType, ClassName rawType,
                           List<TypeName> typeArguments)
@@ -44,9 +46,21 @@ public final class ParameterizedTypeName extends TypeName
 
     private ParameterizedTypeName(ParameterizedTypeName enclosingType, ClassName rawType,
                                   List<TypeName> typeArguments, List<AnnotationSpec> annotations)
+    {
+        this(enclosingType, checkNotNull(rawType, "rawType == null").annotated(annotations),
+                typeArguments, annotations, true);
+    }
+
+    /**
+     * Creates a parameterized type whose {@code rawType} already carries {@code annotations}, as
+     * the raw type of an existing instance does. The flag only tells this constructor apart.
+     */
+    private ParameterizedTypeName(ParameterizedTypeName enclosingType, ClassName rawType,
+                                  List<TypeName> typeArguments, List<AnnotationSpec> annotations,
+                                  boolean rawTypeAnnotated)
     {
         super(annotations);
-        this.rawType = checkNotNull(rawType, "rawType == null").annotated(annotations);
+        this.rawType = rawType;
         this.enclosingType = enclosingType;
         this.typeArguments = Util.immutableList(typeArguments);
 
@@ -77,7 +91,7 @@ public final class ParameterizedTypeName extends TypeName
      */
     public static ParameterizedTypeName get(ParameterizedType type)
     {
-        return get(type, new LinkedHashMap<>());
+        return (ParameterizedTypeName) TypeNameCache.get(type);
     }
     /**
      * Returns a parameterized type equivalent to {@code type}.
@@ -105,6 +119,57 @@ public final class ParameterizedTypeName extends TypeName
         return new ParameterizedTypeName(
                 enclosingType, rawType.withoutAnnotations(), typeArguments, new ArrayList<>());
     }
+    /**
+     * Returns a copy of this type with the same raw type and annotations.
+     */
+    ParameterizedTypeName withTypeArguments(ParameterizedTypeName enclosingType,
+                                            List<TypeName> typeArguments)
+    {
+        return new ParameterizedTypeName(enclosingType, rawType, typeArguments, annotations, true);
+    }
+    @Override
+    boolean anyComponentMatches(Predicate<? super TypeName> predicate)
+    {
+        return (enclosingType != null && enclosingType.anyMatch(predicate))
+                || rawType.anyMatch(predicate)
+                || anyMatch(typeArguments, predicate);
+    }
+    @Override
+    TypeName substituteComponents(Function<? super TypeName, ? extends TypeName> substitution)
+    {
+        TypeName newEnclosingType = enclosingType != null
+                ? enclosingType.substitute(substitution)
+                : null;
+        checkArgument(newEnclosingType == null || newEnclosingType instanceof ParameterizedTypeName,
+                "%s cannot enclose %s", newEnclosingType, rawType.simpleName());
+        TypeName newRawType = rawType.substitute(substitution);
+        checkArgument(newRawType instanceof ClassName, "invalid raw type: %s", newRawType);
+        List<TypeName> newTypeArguments = substituteAll(typeArguments, substitution);
+        if (newRawType != rawType)
+        {
+            return new ParameterizedTypeName((ParameterizedTypeName) newEnclosingType,
+                    (ClassName) newRawType, newTypeArguments);
+        }
+        if (newEnclosingType == enclosingType && newTypeArguments == typeArguments) return this;
+        return withTypeArguments((ParameterizedTypeName) newEnclosingType, newTypeArguments);
+    }
+    @Override
+    boolean structurallyEquals(TypeName o)
+    {
+        ParameterizedTypeName that = (ParameterizedTypeName) o;
+        return rawType.equals(that.rawType)
+                && typeArguments.equals(that.typeArguments)
+                && annotations.equals(that.annotations)
+                && Objects.equals(enclosingType, that.enclosingType);
+    }
+    @Override
+    int structuralHashCode()
+    {
+        int result = rawType.hashCode();
+        result = 31 * result + typeArguments.hashCode();
+        result = 31 * result + annotations.hashCode();
+        return 31 * result + (enclosingType != null ? enclosingType.hashCode() : 0);
+    }
     @Override
     CodeWriter emit(CodeWriter out) throws IOException
     {
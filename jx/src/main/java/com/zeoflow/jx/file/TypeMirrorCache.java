@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2021 ZeoFlow SRL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zeoflow.jx.file;
+
+import javax.lang.model.element.TypeParameterElement;
+import javax.lang.model.type.TypeMirror;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.zeoflow.jx.file.Util.checkNotNull;
+import static com.zeoflow.jx.file.Util.checkState;
+
+/**
+ * Remembers the type names of type mirrors and type parameters converted on this thread while it
+ * is open, so that converting the same mirror again is a lookup. While a cache is open, {@link
+ * TypeName#get(TypeMirror)} and {@link TypeVariableName#get(TypeParameterElement)} use it.
+ *
+ * <p>Mirrors are only valid for a single processing round, so open a cache for each round: <pre>
+ *   {@code
+ *
+ *   public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+ *     try (TypeMirrorCache cache = TypeMirrorCache.open()) {
+ *       ...
+ *     }
+ *   }
+ * }</pre>
+ *
+ * <p>Mirrors are compared by identity: equal mirrors that are different instances are converted
+ * once each. Caches aren't thread-safe, and each thread has its own.
+ */
+public final class TypeMirrorCache implements AutoCloseable
+{
+
+    private static final ThreadLocal<TypeMirrorCache> CURRENT = new ThreadLocal<>();
+
+    private final Map<TypeMirror, TypeName> typeNames = new IdentityHashMap<>();
+    private final Map<TypeParameterElement, TypeVariableName> typeVariables = new IdentityHashMap<>();
+    private final Thread thread = Thread.currentThread();
+
+    private TypeMirrorCache()
+    {
+    }
+
+    /**
+     * Opens a cache on this thread, which must not have one open already.
+     */
+    public static TypeMirrorCache open()
+    {
+        checkState(CURRENT.get() == null, "a TypeMirrorCache is already open on this thread");
+        TypeMirrorCache result = new TypeMirrorCache();
+        CURRENT.set(result);
+        return result;
+    }
+
+    /**
+     * Returns the cache open on this thread, or null.
+     */
+    static TypeMirrorCache current()
+    {
+        return CURRENT.get();
+    }
+
+    TypeName get(TypeMirror mirror)
+    {
+        TypeName result = typeNames.get(checkNotNull(mirror, "mirror == null"));
+        if (result == null)
+        {
+            result = TypeName.get(mirror, new LinkedHashMap<>());
+            typeNames.put(mirror, result);
+        }
+        return result;
+    }
+
+    TypeVariableName get(TypeParameterElement element)
+    {
+        TypeVariableName result = typeVariables.get(checkNotNull(element, "element == null"));
+        if (result == null)
+        {
+            result = TypeVariableName.convert(element);
+            typeVariables.put(element, result);
+        }
+        return result;
+    }
+
+    /**
+     * Closes this cache and forgets its type names. Closing a closed cache has no effect.
+     */
+    @Override
+    public void close()
+    {
+        checkState(Thread.currentThread() == thread, "a TypeMirrorCache must be closed on its thread");
+        if (CURRENT.get() == this) CURRENT.remove();
+        typeNames.clear();
+        typeVariables.clear();
+    }
+
+}
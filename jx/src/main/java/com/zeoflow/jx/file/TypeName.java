@@ -40,6 +40,12 @@ import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static com.zeoflow.jx.file.Util.checkArgument;
+import static com.zeoflow.jx.file.Util.checkNotNull;
+import static com.zeoflow.jx.file.Util.checkState;
 
 /**
  * Any type in Java's type system, plus {@code void}. This class is an identifier for primitive
@@ -80,17 +86,17 @@ public class TypeName
     public static final TypeName CHAR = new TypeName("char");
     public static final TypeName FLOAT = new TypeName("float");
     public static final TypeName DOUBLE = new TypeName("double");
-    public static final ClassName OBJECT = ClassName.get("java.lang", "Object");
+    public static final ClassName OBJECT = ClassName.constant("java.lang", "Object");
 
-    private static final ClassName BOXED_VOID = ClassName.get("java.lang", "Void");
-    private static final ClassName BOXED_BOOLEAN = ClassName.get("java.lang", "Boolean");
-    private static final ClassName BOXED_BYTE = ClassName.get("java.lang", "Byte");
-    private static final ClassName BOXED_SHORT = ClassName.get("java.lang", "Short");
-    private static final ClassName BOXED_INT = ClassName.get("java.lang", "Integer");
-    private static final ClassName BOXED_LONG = ClassName.get("java.lang", "Long");
-    private static final ClassName BOXED_CHAR = ClassName.get("java.lang", "Character");
-    private static final ClassName BOXED_FLOAT = ClassName.get("java.lang", "Float");
-    private static final ClassName BOXED_DOUBLE = ClassName.get("java.lang", "Double");
+    private static final ClassName BOXED_VOID = ClassName.constant("java.lang", "Void");
+    private static final ClassName BOXED_BOOLEAN = ClassName.constant("java.lang", "Boolean");
+    private static final ClassName BOXED_BYTE = ClassName.constant("java.lang", "Byte");
+    private static final ClassName BOXED_SHORT = ClassName.constant("java.lang", "Short");
+    private static final ClassName BOXED_INT = ClassName.constant("java.lang", "Integer");
+    private static final ClassName BOXED_LONG = ClassName.constant("java.lang", "Long");
+    private static final ClassName BOXED_CHAR = ClassName.constant("java.lang", "Character");
+    private static final ClassName BOXED_FLOAT = ClassName.constant("java.lang", "Float");
+    private static final ClassName BOXED_DOUBLE = ClassName.constant("java.lang", "Double");
     public final List<AnnotationSpec> annotations;
     /**
      * The name of this type if it is a keyword, or null.
@@ -100,6 +106,10 @@ public class TypeName
      * Lazily-initialized toString of this type name.
      */
     private String cachedString;
+    /**
+     * Lazily-initialized hashCode of this type name, or 0 if it hasn't been computed yet.
+     */
+    private int cachedHashCode;
 
     private TypeName(String keyword)
     {
@@ -113,45 +123,16 @@ public class TypeName
     }
     public static TypeName get(Class<?> className)
     {
-        return get(className.getCanonicalName());
+        return TypeNameCache.get(className);
     }
+    /**
+     * Returns the type name for the Java type {@code raw}, like {@code "int[]"} or {@code
+     * "java.util.Map<java.lang.String, ? extends java.lang.Number>"}. Package and class names are
+     * told apart like in {@link ClassName#bestGuess}. Recently parsed names are cached.
+     */
     public static TypeName get(String raw)
     {
-        if (!raw.contains("<"))
-        {
-            int lastIndex = raw.lastIndexOf(".");
-            if(lastIndex != -1)
-            {
-                String classPackage = raw.substring(0, raw.lastIndexOf("."));
-                String className = raw.substring(raw.lastIndexOf(".") + 1);
-                return ClassName.get(classPackage, className);
-            }
-            return null;
-        }
-        List<String> packages = new ArrayList<>();
-        while(raw.contains("<"))
-        {
-            int firstIndex = raw.lastIndexOf("<") + 1;
-            int lastIndex = raw.indexOf(">");
-            packages.add(raw.substring(firstIndex, lastIndex));
-            raw = raw.replace(raw.substring(firstIndex - 1, lastIndex + 1), "");
-        }
-        packages.add(raw);
-        TypeName typeName = null;
-        for(String packageClass: packages)
-        {
-            ClassBean classData = new ClassBean(packageClass);
-            if(typeName == null)
-            {
-                typeName = get(packageClass);
-            } else {
-                typeName = ParameterizedTypeName.get(
-                        ClassName.get(classData.classPackage, classData.className),
-                        typeName
-                );
-            }
-        }
-        return typeName;
+        return TypeNameParser.parse(raw);
     }
     // Package-private constructor to prevent third-party subclasses.
     TypeName(List<AnnotationSpec> annotations)
@@ -163,127 +144,27 @@ public class TypeName
      */
     public static TypeName get(TypeMirror mirror)
     {
+        TypeMirrorCache cache = TypeMirrorCache.current();
+        if (cache != null) return cache.get(mirror);
         return get(mirror, new LinkedHashMap<>());
     }
     static TypeName get(TypeMirror mirror,
                         final Map<TypeParameterElement, TypeVariableName> typeVariables)
     {
-        return mirror.accept(new SimpleTypeVisitor8<TypeName, Void>()
-        {
-            @Override
-            public TypeName visitPrimitive(PrimitiveType t, Void p)
-            {
-                switch (t.getKind())
-                {
-                    case BOOLEAN:
-                        return TypeName.BOOLEAN;
-                    case BYTE:
-                        return TypeName.BYTE;
-                    case SHORT:
-                        return TypeName.SHORT;
-                    case INT:
-                        return TypeName.INT;
-                    case LONG:
-                        return TypeName.LONG;
-                    case CHAR:
-                        return TypeName.CHAR;
-                    case FLOAT:
-                        return TypeName.FLOAT;
-                    case DOUBLE:
-                        return TypeName.DOUBLE;
-                    default:
-                        throw new AssertionError();
-                }
-            }
-
-            @Override
-            public TypeName visitDeclared(DeclaredType t, Void p)
-            {
-                ClassName rawType = ClassName.get((TypeElement) t.asElement());
-                TypeMirror enclosingType = t.getEnclosingType();
-                TypeName enclosing =
-                        (enclosingType.getKind() != TypeKind.NONE)
-                                && !t.asElement().getModifiers().contains(Modifier.STATIC)
-                                ? enclosingType.accept(this, null)
-                                : null;
-                if (t.getTypeArguments().isEmpty() && !(enclosing instanceof ParameterizedTypeName))
-                {
-                    return rawType;
-                }
-
-                List<TypeName> typeArgumentNames = new ArrayList<>();
-                for (TypeMirror mirror : t.getTypeArguments())
-                {
-                    typeArgumentNames.add(get(mirror, typeVariables));
-                }
-                return enclosing instanceof ParameterizedTypeName
-                        ? ((ParameterizedTypeName) enclosing).nestedClass(
-                        rawType.simpleName(), typeArgumentNames)
-                        : new ParameterizedTypeName(null, rawType, typeArgumentNames);
-            }
-
-            @Override
-            public TypeName visitError(ErrorType t, Void p)
-            {
-                return visitDeclared(t, p);
-            }
-
-            @Override
-            public ArrayTypeName visitArray(ArrayType t, Void p)
-            {
-                return ArrayTypeName.get(t, typeVariables);
-            }
-
-            @Override
-            public TypeName visitTypeVariable(javax.lang.model.type.TypeVariable t, Void p)
-            {
-                return TypeVariableName.get(t, typeVariables);
-            }
-
-            @Override
-            public TypeName visitWildcard(javax.lang.model.type.WildcardType t, Void p)
-            {
-                return WildcardTypeName.get(t, typeVariables);
-            }
-
-            @Override
-            public TypeName visitNoType(NoType t, Void p)
-            {
-                if (t.getKind() == TypeKind.VOID) return TypeName.VOID;
-                return super.visitUnknown(t, p);
-            }
-
-            @Override
-            protected TypeName defaultAction(TypeMirror e, Void p)
-            {
-                throw new IllegalArgumentException("Unexpected type mirror: " + e);
-            }
-        }, null);
+        return mirror.accept(MirrorConverter.INSTANCE, typeVariables);
     }
     /**
      * Returns a type name equivalent to {@code type}.
      */
     public static TypeName get(Type type)
     {
-        return get(type, new LinkedHashMap<>());
+        return TypeNameCache.get(type);
     }
     static TypeName get(Type type, Map<Type, TypeVariableName> map)
     {
         if (type instanceof Class<?>)
         {
-            Class<?> classType = (Class<?>) type;
-            if (type == void.class) return VOID;
-            if (type == boolean.class) return BOOLEAN;
-            if (type == byte.class) return BYTE;
-            if (type == short.class) return SHORT;
-            if (type == int.class) return INT;
-            if (type == long.class) return LONG;
-            if (type == char.class) return CHAR;
-            if (type == float.class) return FLOAT;
-            if (type == double.class) return DOUBLE;
-            if (classType.isArray())
-                return ArrayTypeName.of(get(classType.getComponentType(), map));
-            return ClassName.get(classType);
+            return TypeNameCache.get((Class<?>) type);
 
         } else if (type instanceof ParameterizedType)
         {
@@ -306,27 +187,112 @@ public class TypeName
             throw new IllegalArgumentException("unexpected type: " + type);
         }
     }
+    /**
+     * Returns the type name of {@code type} without consulting the cache.
+     */
+    static TypeName forClass(Class<?> type)
+    {
+        if (type == void.class) return VOID;
+        if (type == boolean.class) return BOOLEAN;
+        if (type == byte.class) return BYTE;
+        if (type == short.class) return SHORT;
+        if (type == int.class) return INT;
+        if (type == long.class) return LONG;
+        if (type == char.class) return CHAR;
+        if (type == float.class) return FLOAT;
+        if (type == double.class) return DOUBLE;
+        if (type.isArray()) return ArrayTypeName.of(TypeNameCache.get(type.getComponentType()));
+        return ClassName.create(type);
+    }
+    /**
+     * Returns true if {@code className} occurs anywhere in this type name.
+     */
     public boolean contains(Class<?> className)
     {
         return contains(className.getCanonicalName());
     }
+    /**
+     * Returns true if the class, primitive or type variable named {@code raw} occurs anywhere in
+     * this type name, like {@code "java.lang.String"} in {@code Map<String, List<String>>}.
+     * Annotations are ignored.
+     */
     public boolean contains(String raw)
     {
-        String typeNameStr = toString();
-        if (!typeNameStr.contains("<"))
+        return anyMatch(typeName -> raw.equals(rawName(typeName)));
+    }
+    private static String rawName(TypeName typeName)
+    {
+        if (typeName.keyword != null) return typeName.keyword;
+        if (typeName instanceof ClassName) return ((ClassName) typeName).canonicalName;
+        if (typeName instanceof TypeVariableName) return ((TypeVariableName) typeName).name;
+        return null;
+    }
+    /**
+     * Returns true if {@code predicate} matches this type name or any type name it is composed of:
+     * raw types, type arguments, wildcard bounds and array components. Type name trees are visited
+     * depth first. Type variable bounds are not visited, since they may refer to the variable
+     * itself.
+     */
+    public boolean anyMatch(Predicate<? super TypeName> predicate)
+    {
+        return predicate.test(this) || anyComponentMatches(predicate);
+    }
+    boolean anyComponentMatches(Predicate<? super TypeName> predicate)
+    {
+        return false;
+    }
+    /**
+     * Returns this type name with every occurrence of {@code from} replaced by {@code to}.
+     */
+    public TypeName substitute(TypeName from, TypeName to)
+    {
+        checkNotNull(from, "from == null");
+        checkNotNull(to, "to == null");
+        return substitute(typeName -> typeName.equals(from) ? to : typeName);
+    }
+    /**
+     * Returns this type name rewritten by {@code substitution}. The function is applied to this
+     * type name first. If it returns a different type name, that replaces this one entirely.
+     * Otherwise it is applied to the type names this one is composed of, as visited by {@link
+     * #anyMatch}. Parts that don't change are shared with the result, and if nothing changes this
+     * instance is returned.
+     */
+    public TypeName substitute(Function<? super TypeName, ? extends TypeName> substitution)
+    {
+        TypeName result = checkNotNull(substitution.apply(this), "substitution returned null for %s", this);
+        return result != this ? result : substituteComponents(substitution);
+    }
+    TypeName substituteComponents(Function<? super TypeName, ? extends TypeName> substitution)
+    {
+        return this;
+    }
+    /**
+     * Applies {@code substitution} to each of {@code typeNames}, returning the same list if none of
+     * them changed.
+     */
+    static List<TypeName> substituteAll(List<TypeName> typeNames,
+            Function<? super TypeName, ? extends TypeName> substitution)
+    {
+        List<TypeName> result = typeNames;
+        for (int i = 0, size = typeNames.size(); i < size; i++)
         {
-            return typeNameStr.equals(raw);
+            TypeName typeName = typeNames.get(i);
+            TypeName substituted = typeName.substitute(substitution);
+            if (substituted != typeName)
+            {
+                if (result == typeNames) result = new ArrayList<>(typeNames);
+                result.set(i, substituted);
+            }
         }
-        List<String> packages = new ArrayList<>();
-        while(typeNameStr.contains("<"))
+        return result;
+    }
+    static boolean anyMatch(List<TypeName> typeNames, Predicate<? super TypeName> predicate)
+    {
+        for (int i = 0, size = typeNames.size(); i < size; i++)
         {
-            int firstIndex = typeNameStr.lastIndexOf("<") + 1;
-            int lastIndex = typeNameStr.indexOf(">");
-            packages.add(typeNameStr.substring(firstIndex, lastIndex));
-            typeNameStr = typeNameStr.replace(typeNameStr.substring(firstIndex - 1, lastIndex + 1), "");
+            if (typeNames.get(i).anyMatch(predicate)) return true;
         }
-        packages.add(typeNameStr);
-        return packages.contains(raw);
+        return false;
     }
     /**
      * Converts an array of types to a list of type names.
@@ -399,14 +365,8 @@ public class TypeName
      */
     public boolean isBoxedPrimitive()
     {
-        return this.equals(BOXED_BOOLEAN)
-                || this.equals(BOXED_BYTE)
-                || this.equals(BOXED_SHORT)
-                || this.equals(BOXED_INT)
-                || this.equals(BOXED_LONG)
-                || this.equals(BOXED_CHAR)
-                || this.equals(BOXED_FLOAT)
-                || this.equals(BOXED_DOUBLE);
+        TypeName unboxed = unboxedOrNull();
+        return unboxed != null && unboxed != VOID;
     }
     /**
      * Returns a boxed type if this is a primitive type (like {@code Integer} for {@code int}) or
@@ -435,49 +395,59 @@ public class TypeName
     public TypeName unbox()
     {
         if (keyword != null) return this; // Already unboxed.
-        if (this.equals(BOXED_VOID)) return VOID;
-        if (this.equals(BOXED_BOOLEAN)) return BOOLEAN;
-        if (this.equals(BOXED_BYTE)) return BYTE;
-        if (this.equals(BOXED_SHORT)) return SHORT;
-        if (this.equals(BOXED_INT)) return INT;
-        if (this.equals(BOXED_LONG)) return LONG;
-        if (this.equals(BOXED_CHAR)) return CHAR;
-        if (this.equals(BOXED_FLOAT)) return FLOAT;
-        if (this.equals(BOXED_DOUBLE)) return DOUBLE;
+        TypeName unboxed = unboxedOrNull();
+        if (unboxed != null) return unboxed;
         throw new UnsupportedOperationException("cannot unbox " + this);
     }
-    public TypeName disassemble()
+    /**
+     * Returns the primitive type or {@code void} boxed by this type, or null if this isn't an
+     * unannotated {@code java.lang} box. Only the class name's simple name is switched on; nothing
+     * is rendered.
+     */
+    private TypeName unboxedOrNull()
     {
-        String raw = toString();
-        if (!raw.contains("<"))
+        if (!(this instanceof ClassName)) return null;
+        ClassName className = (ClassName) this;
+        if (className.enclosingClassName != null
+                || !className.annotations.isEmpty()
+                || !className.packageName.equals("java.lang"))
         {
-            return this;
-        }
-        List<String> packages = new ArrayList<>();
-        while(raw.contains("<"))
-        {
-            int firstIndex = raw.lastIndexOf("<") + 1;
-            int lastIndex = raw.indexOf(">");
-            packages.add(raw.substring(firstIndex, lastIndex));
-            raw = raw.replace(raw.substring(firstIndex - 1, lastIndex + 1), "");
+            return null;
         }
-        packages.add(raw);
-        TypeName typeName = null;
-        for(int index = 0; index<packages.size() - 1; index++)
+        switch (className.simpleName)
         {
-            String packageClass = packages.get(index);
-            ClassBean classData = new ClassBean(packageClass);
-            if(typeName == null)
-            {
-                typeName = get(packageClass);
-            } else {
-                typeName = ParameterizedTypeName.get(
-                        ClassName.get(classData.classPackage, classData.className),
-                        typeName
-                );
-            }
+            case "Void":
+                return VOID;
+            case "Boolean":
+                return BOOLEAN;
+            case "Byte":
+                return BYTE;
+            case "Short":
+                return SHORT;
+            case "Integer":
+                return INT;
+            case "Long":
+                return LONG;
+            case "Character":
+                return CHAR;
+            case "Float":
+                return FLOAT;
+            case "Double":
+                return DOUBLE;
+            default:
+                return null;
         }
-        return typeName;
+    }
+    /**
+     * Removes the outermost parameterized type, like {@code List<String>} for {@code
+     * LiveData<List<String>>}. Returns the first type argument of a parameterized type, and this
+     * type name otherwise.
+     */
+    public TypeName disassemble()
+    {
+        return this instanceof ParameterizedTypeName
+                ? ((ParameterizedTypeName) this).typeArguments.get(0)
+                : this;
     }
     public TypeName assemble(Class<?> className)
     {
@@ -485,7 +455,7 @@ public class TypeName
     }
     public TypeName assemble(Class<?> className, boolean fromInside)
     {
-        return assemble(className.getCanonicalName(), fromInside);
+        return assemble(ClassName.get(className), fromInside);
     }
     public TypeName assemble(String raw)
     {
@@ -493,51 +463,78 @@ public class TypeName
     }
     public TypeName assemble(String raw, boolean fromInside)
     {
-        String packageStr = toString();
-        List<String> packages = new ArrayList<>();
-        while(packageStr.contains("<"))
-        {
-            int firstIndex = packageStr.lastIndexOf("<") + 1;
-            int lastIndex = packageStr.indexOf(">");
-            packages.add(packageStr.substring(firstIndex, lastIndex));
-            packageStr = packageStr.replace(packageStr.substring(firstIndex - 1, lastIndex + 1), "");
-        }
-        packages.add(packageStr);
-        TypeName typeName = null;
-        if (fromInside)
-        {
-            packages.add(0, raw);
-        } else
+        TypeName className = get(raw);
+        checkArgument(className instanceof ClassName, "not a class name: %s", raw);
+        return assemble((ClassName) className, fromInside);
+    }
+    /**
+     * Parameterizes a type with this one, or this one with a type. If {@code fromInside} is false,
+     * returns {@code className<this>}, like {@code LiveData<List<String>>} for {@code
+     * List<String>}. Otherwise the innermost class, following first type arguments, is given {@code
+     * className} as its type argument, like {@code List<Set<String>>} for {@code List<Set>}.
+     */
+    public TypeName assemble(ClassName className, boolean fromInside)
+    {
+        checkNotNull(className, "className == null");
+        if (!fromInside)
         {
-            packages.add(raw);
+            return ParameterizedTypeName.get(className, this);
         }
-        for(String packageClass: packages)
+        if (this instanceof ParameterizedTypeName)
         {
-            ClassBean classData = new ClassBean(packageClass);
-            if(typeName == null)
-            {
-                typeName = get(packageClass);
-            } else {
-                typeName = ParameterizedTypeName.get(
-                        ClassName.get(classData.classPackage, classData.className),
-                        typeName
-                );
-            }
+            ParameterizedTypeName parameterized = (ParameterizedTypeName) this;
+            List<TypeName> typeArguments = new ArrayList<>(parameterized.typeArguments);
+            typeArguments.set(0, typeArguments.get(0).assemble(className, true));
+            return parameterized.withTypeArguments(parameterized.enclosingType, typeArguments);
         }
-        return typeName;
+        checkState(this instanceof ClassName, "cannot parameterize %s", this);
+        return ParameterizedTypeName.get((ClassName) this, className);
     }
+    /**
+     * Type names are equal if they have the same structure, which is exactly when they render to
+     * the same text. Neither side is rendered.
+     */
     @Override
     public final boolean equals(Object o)
     {
         if (this == o) return true;
         if (o == null) return false;
         if (getClass() != o.getClass()) return false;
-        return toString().equals(o.toString());
+        TypeName that = (TypeName) o;
+        if (keyword != null)
+        {
+            // Primitives and void: same keyword and annotations, never anything deeper.
+            return keyword.equals(that.keyword) && annotations.equals(that.annotations);
+        }
+        return hashCode() == that.hashCode() && structurallyEquals(that);
     }
     @Override
     public final int hashCode()
     {
-        return toString().hashCode();
+        int result = cachedHashCode;
+        if (result == 0)
+        {
+            result = keyword != null
+                    ? 31 * keyword.hashCode() + annotations.hashCode()
+                    : structuralHashCode();
+            cachedHashCode = result;
+        }
+        return result;
+    }
+    /**
+     * Compares the parts of this type name that are emitted, given that {@code that} is of the
+     * same class. Only called for reference types.
+     */
+    boolean structurallyEquals(TypeName that)
+    {
+        throw new AssertionError();
+    }
+    /**
+     * Returns a hash code over the same parts compared by {@link #structurallyEquals}.
+     */
+    int structuralHashCode()
+    {
+        throw new AssertionError();
     }
     @Override
     public final String toString()
@@ -580,4 +577,113 @@ public class TypeName
         return out;
     }
 
+    /**
+     * Converts type mirrors to type names. It has no state: type variables being converted are
+     * passed along with each visit, so a single instance is shared by all conversions.
+     */
+    private static final class MirrorConverter
+            extends SimpleTypeVisitor8<TypeName, Map<TypeParameterElement, TypeVariableName>>
+    {
+
+        static final MirrorConverter INSTANCE = new MirrorConverter();
+
+        @Override
+        public TypeName visitPrimitive(PrimitiveType t,
+                                       Map<TypeParameterElement, TypeVariableName> typeVariables)
+        {
+            switch (t.getKind())
+            {
+                case BOOLEAN:
+                    return TypeName.BOOLEAN;
+                case BYTE:
+                    return TypeName.BYTE;
+                case SHORT:
+                    return TypeName.SHORT;
+                case INT:
+                    return TypeName.INT;
+                case LONG:
+                    return TypeName.LONG;
+                case CHAR:
+                    return TypeName.CHAR;
+                case FLOAT:
+                    return TypeName.FLOAT;
+                case DOUBLE:
+                    return TypeName.DOUBLE;
+                default:
+                    throw new AssertionError();
+            }
+        }
+
+        @Override
+        public TypeName visitDeclared(DeclaredType t,
+                                      Map<TypeParameterElement, TypeVariableName> typeVariables)
+        {
+            ClassName rawType = ClassName.get((TypeElement) t.asElement());
+            TypeMirror enclosingType = t.getEnclosingType();
+            TypeName enclosing =
+                    (enclosingType.getKind() != TypeKind.NONE)
+                            && !t.asElement().getModifiers().contains(Modifier.STATIC)
+                            ? enclosingType.accept(this, typeVariables)
+                            : null;
+            if (t.getTypeArguments().isEmpty() && !(enclosing instanceof ParameterizedTypeName))
+            {
+                return rawType;
+            }
+
+            List<TypeName> typeArgumentNames = new ArrayList<>();
+            for (TypeMirror mirror : t.getTypeArguments())
+            {
+                typeArgumentNames.add(get(mirror, typeVariables));
+            }
+            return enclosing instanceof ParameterizedTypeName
+                    ? ((ParameterizedTypeName) enclosing).nestedClass(
+                    rawType.simpleName(), typeArgumentNames)
+                    : new ParameterizedTypeName(null, rawType, typeArgumentNames);
+        }
+
+        @Override
+        public TypeName visitError(ErrorType t,
+                                   Map<TypeParameterElement, TypeVariableName> typeVariables)
+        {
+            return visitDeclared(t, typeVariables);
+        }
+
+        @Override
+        public ArrayTypeName visitArray(ArrayType t,
+                                        Map<TypeParameterElement, TypeVariableName> typeVariables)
+        {
+            return ArrayTypeName.get(t, typeVariables);
+        }
+
+        @Override
+        public TypeName visitTypeVariable(javax.lang.model.type.TypeVariable t,
+                                          Map<TypeParameterElement, TypeVariableName> typeVariables)
+        {
+            return TypeVariableName.get(t, typeVariables);
+        }
+
+        @Override
+        public TypeName visitWildcard(javax.lang.model.type.WildcardType t,
+                                      Map<TypeParameterElement, TypeVariableName> typeVariables)
+        {
+            return WildcardTypeName.get(t, typeVariables);
+        }
+
+        @Override
+        public TypeName visitNoType(NoType t,
+                                    Map<TypeParameterElement, TypeVariableName> typeVariables)
+        {
+            if (t.getKind() == TypeKind.VOID) return TypeName.VOID;
+            return super.visitUnknown(t, typeVariables);
+        }
+
+        @Override
+        protected TypeName defaultAction(TypeMirror e,
+                                         Map<TypeParameterElement, TypeVariableName> typeVariables)
+        {
+            throw new IllegalArgumentException("Unexpected type mirror: " + e);
+        }
+
+    }
+
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2021 ZeoFlow SRL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zeoflow.jx.file;
+
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Caches the type names of reflective types. Type names never reference the types they were
+ * created from, so neither cache keeps a class or its class loader reachable.
+ */
+final class TypeNameCache
+{
+
+    private static final ClassCache CLASSES = newClassCache();
+    private static final Map<Type, TypeName> GENERIC_TYPES =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    private TypeNameCache()
+    {
+    }
+
+    /**
+     * Returns the type name of {@code type}, computing it at most once per class. Class names are
+     * interned on the way out if interning is enabled, since they may have been cached before.
+     */
+    static TypeName get(Class<?> type)
+    {
+        TypeName result = CLASSES.get(type);
+        return result instanceof ClassName ? ((ClassName) result).interned() : result;
+    }
+
+    /**
+     * Returns the type name of {@code type}. Classes, parameterized types and generic array types are
+     * cached; type variables and wildcards are converted on every call.
+     */
+    static TypeName get(Type type)
+    {
+        if (type instanceof Class<?>)
+        {
+            return get((Class<?>) type);
+        }
+        if (!(type instanceof ParameterizedType) && !(type instanceof GenericArrayType))
+        {
+            return TypeName.get(type, new LinkedHashMap<>());
+        }
+        TypeName result = GENERIC_TYPES.get(type);
+        if (result == null)
+        {
+            result = TypeName.get(type, new LinkedHashMap<>());
+            GENERIC_TYPES.put(type, result);
+        }
+        return result;
+    }
+
+    private static ClassCache newClassCache()
+    {
+        try
+        {
+            Class.forName("java.lang.ClassValue");
+            return new ClassValueCache();
+        } catch (ClassNotFoundException e)
+        {
+            // Older Android runtimes don't have ClassValue.
+            return new WeakClassCache();
+        }
+    }
+
+    private interface ClassCache
+    {
+        TypeName get(Class<?> type);
+    }
+
+    private static final class ClassValueCache extends ClassValue<TypeName> implements ClassCache
+    {
+        @Override
+        protected TypeName computeValue(Class<?> type)
+        {
+            return TypeName.forClass(type);
+        }
+    }
+
+    private static final class WeakClassCache implements ClassCache
+    {
+        private final Map<Class<?>, TypeName> cache = new WeakHashMap<>();
+
+        @Override
+        public synchronized TypeName get(Class<?> type)
+        {
+            TypeName result = cache.get(type);
+            if (result == null)
+            {
+                result = TypeName.forClass(type);
+                cache.put(type, result);
+            }
+            return result;
+        }
+    }
+
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2021 ZeoFlow SRL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zeoflow.jx.file;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses type names like {@code java.util.Map<K, ? extends List<V>>[]} in a single pass.
+ *
+ * <p>Like {@link ClassName#bestGuess}, leading lowercase segments of a qualified name are taken to
+ * be the package and the remaining segments nested class names. If no segment starts with an
+ * uppercase letter, the last one is taken to be the class name.
+ */
+final class TypeNameParser
+{
+
+    private static final int CACHE_SIZE = 1024;
+
+    /**
+     * Recently parsed type names, least recently used first.
+     */
+    private static final Map<String, TypeName> CACHE =
+            new LinkedHashMap<String, TypeName>(CACHE_SIZE, 0.75f, true)
+            {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, TypeName> eldest)
+                {
+                    return size() > CACHE_SIZE;
+                }
+            };
+
+    private final String input;
+    private int pos;
+
+    private TypeNameParser(String input)
+    {
+        this.input = input;
+    }
+
+    /**
+     * Returns the type name for {@code input}, parsing it only if it isn't cached.
+     */
+    static TypeName parse(String input)
+    {
+        Util.checkNotNull(input, "input == null");
+        TypeName result;
+        synchronized (CACHE)
+        {
+            result = CACHE.get(input);
+        }
+        if (result == null)
+        {
+            TypeNameParser parser = new TypeNameParser(input);
+            result = parser.type();
+            parser.skipWhitespace();
+            parser.check(parser.pos == input.length());
+            synchronized (CACHE)
+            {
+                CACHE.put(input, result);
+            }
+        }
+        return result;
+    }
+
+    private TypeName type()
+    {
+        TypeName result;
+        String name = identifier();
+        switch (name)
+        {
+            case "void":
+                result = TypeName.VOID;
+                break;
+            case "boolean":
+                result = TypeName.BOOLEAN;
+                break;
+            case "byte":
+                result = TypeName.BYTE;
+                break;
+            case "short":
+                result = TypeName.SHORT;
+                break;
+            case "int":
+                result = TypeName.INT;
+                break;
+            case "long":
+                result = TypeName.LONG;
+                break;
+            case "char":
+                result = TypeName.CHAR;
+                break;
+            case "float":
+                result = TypeName.FLOAT;
+                break;
+            case "double":
+                result = TypeName.DOUBLE;
+                break;
+            default:
+                result = classType(name);
+                break;
+        }
+        while (consume('['))
+        {
+            check(consume(']'));
+            result = ArrayTypeName.of(result);
+        }
+        return result;
+    }
+
+    private TypeName classType(String first)
+    {
+        List<String> names = new ArrayList<>();
+        names.add(first);
+        while (peek() == '.')
+        {
+            pos++;
+            names.add(identifier());
+        }
+
+        int classIndex = 0;
+        while (classIndex < names.size() && Character.isLowerCase(names.get(classIndex).charAt(0)))
+        {
+            classIndex++;
+        }
+        if (classIndex == names.size()) classIndex--;
+
+        String packageName = String.join(".", names.subList(0, classIndex));
+        ClassName className = ClassName.get(packageName, names.get(classIndex));
+        for (int i = classIndex + 1; i < names.size(); i++)
+        {
+            className = className.nestedClass(names.get(i));
+        }
+
+        if (peek() != '<') return className;
+        ParameterizedTypeName result = new ParameterizedTypeName(null, className, typeArguments());
+        while (peek() == '.')
+        {
+            pos++;
+            String name = identifier();
+            result = peek() == '<'
+                    ? result.nestedClass(name, typeArguments())
+                    : result.nestedClass(name);
+        }
+        return result;
+    }
+
+    private List<TypeName> typeArguments()
+    {
+        check(consume('<'));
+        List<TypeName> result = new ArrayList<>();
+        do
+        {
+            result.add(typeArgument());
+        } while (consume(','));
+        check(consume('>'));
+        return result;
+    }
+
+    private TypeName typeArgument()
+    {
+        if (!consume('?')) return type();
+        if (peek() == '>' || peek() == ',') return WildcardTypeName.subtypeOf(Object.class);
+        String keyword = identifier();
+        if (keyword.equals("extends")) return WildcardTypeName.subtypeOf(type());
+        check(keyword.equals("super"));
+        return WildcardTypeName.supertypeOf(type());
+    }
+
+    private String identifier()
+    {
+        skipWhitespace();
+        int start = pos;
+        if (pos < input.length() && Character.isJavaIdentifierStart(input.charAt(pos)))
+        {
+            pos++;
+            while (pos < input.length() && Character.isJavaIdentifierPart(input.charAt(pos)))
+            {
+                pos++;
+            }
+        }
+        check(pos > start);
+        return input.substring(start, pos);
+    }
+
+    /**
+     * Returns the next non-whitespace character without consuming it, or 0 at the end of input.
+     */
+    private char peek()
+    {
+        skipWhitespace();
+        return pos < input.length() ? input.charAt(pos) : 0;
+    }
+
+    private boolean consume(char c)
+    {
+        if (peek() != c) return false;
+        pos++;
+        return true;
+    }
+
+    private void skipWhitespace()
+    {
+        while (pos < input.length() && Character.isWhitespace(input.charAt(pos)))
+        {
+            pos++;
+        }
+    }
+
+    private void check(boolean condition)
+    {
+        Util.checkArgument(condition, "couldn't parse type %s at index %s", input, pos);
+    }
+
+}
@@ -32,6 +32,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -39,6 +40,7 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 
 import static com.zeoflow.jx.file.Util.checkArgument;
@@ -64,13 +66,23 @@ public final class TypeSpec
     public final Map<String, TypeSpec> enumConstants;
     public final List<FieldSpec> fieldSpecs;
     public final CodeBlock staticBlock;
+    /**
+     * The code of each static block, without the {@code static} keyword and braces.
+     */
+    final List<CodeBlock> staticBlocks;
     public final CodeBlock initializerBlock;
     public final List<MethodSpec> methodSpecs;
     public final List<TypeSpec> typeSpecs;
     public final List<Element> originatingElements;
     public final Set<String> alwaysQualifiedNames;
+    /**
+     * The declared imports by canonical name. Values are null for names added to {@link
+     * Builder#imports} directly, rather than with {@link Builder#addImport}.
+     */
+    final Map<String, ClassName> imports;
     final Set<String> nestedTypesSimpleNames;
     public final String typeArguments;
+    private int cachedHashCode;
 
     private TypeSpec(Builder builder)
     {
@@ -86,10 +98,17 @@ public final class TypeSpec
         this.enumConstants = Util.immutableMap(builder.enumConstants);
         this.fieldSpecs = Util.immutableList(builder.fieldSpecs);
         this.staticBlock = builder.staticBlock.build();
+        this.staticBlocks = Util.immutableList(builder.staticBlocks);
         this.initializerBlock = builder.initializerBlock.build();
         this.methodSpecs = Util.immutableList(builder.methodSpecs);
         this.typeSpecs = Util.immutableList(builder.typeSpecs);
         this.alwaysQualifiedNames = Util.immutableSet(builder.alwaysQualifiedNames);
+        Map<String, ClassName> imports = new LinkedHashMap<>();
+        for (String canonicalName : builder.imports)
+        {
+            imports.put(canonicalName, builder.importedClasses.get(canonicalName));
+        }
+        this.imports = Util.immutableMap(imports);
         this.typeArguments = builder.typeArguments;
 
         nestedTypesSimpleNames = new HashSet<>(builder.typeSpecs.size());
@@ -123,12 +142,14 @@ public final class TypeSpec
         this.enumConstants = Collections.emptyMap();
         this.fieldSpecs = Collections.emptyList();
         this.staticBlock = type.staticBlock;
+        this.staticBlocks = type.staticBlocks;
         this.initializerBlock = type.initializerBlock;
         this.methodSpecs = Collections.emptyList();
         this.typeSpecs = Collections.emptyList();
         this.originatingElements = Collections.emptyList();
         this.nestedTypesSimpleNames = Collections.emptySet();
         this.alwaysQualifiedNames = Collections.emptySet();
+        this.imports = Collections.emptyMap();
         this.typeArguments = "";
     }
     public static Builder classBuilder(String name)
@@ -175,6 +196,13 @@ public final class TypeSpec
     {
         return modifiers.contains(modifier);
     }
+    /**
+     * Returns the dummy type pushed to {@link CodeWriter} while emitting this type's declaration.
+     */
+    TypeSpec declarationScope()
+    {
+        return new TypeSpec(this);
+    }
     public Builder toBuilder()
     {
         Builder builder = new Builder(kind, name, anonymousTypeArguments);
@@ -189,9 +217,20 @@ public final class TypeSpec
         builder.methodSpecs.addAll(methodSpecs);
         builder.typeSpecs.addAll(typeSpecs);
         builder.initializerBlock.add(initializerBlock);
-        builder.staticBlock.add(staticBlock);
+        for (CodeBlock block : staticBlocks)
+        {
+            builder.addStaticBlock(block);
+        }
         builder.originatingElements.addAll(originatingElements);
         builder.alwaysQualifiedNames.addAll(alwaysQualifiedNames);
+        for (Map.Entry<String, ClassName> entry : imports.entrySet())
+        {
+            builder.imports.add(entry.getKey());
+            if (entry.getValue() != null)
+            {
+                builder.importedClasses.put(entry.getKey(), entry.getValue());
+            }
+        }
         return builder;
     }
 
@@ -209,8 +248,8 @@ public final class TypeSpec
             {
                 codeWriter.emitJavadoc(javadoc);
                 codeWriter.emitAnnotations(annotations, false);
-                codeWriter.emit("$L", enumName);
-                if (!anonymousTypeArguments.formatParts.isEmpty())
+                codeWriter.emit(enumName);
+                if (!anonymousTypeArguments.isEmpty())
                 {
                     codeWriter.emit("(");
                     codeWriter.emit(anonymousTypeArguments);
@@ -224,23 +263,23 @@ public final class TypeSpec
             } else if (anonymousTypeArguments != null)
             {
                 TypeName supertype = !superinterfaces.isEmpty() ? superinterfaces.get(0) : superclass;
-                codeWriter.emit("new $T(", supertype);
+                codeWriter.emit("new ").emitType(supertype).emit("(");
                 codeWriter.emit(anonymousTypeArguments);
                 codeWriter.emit(") {\n");
             } else
             {
                 // Push an empty type (specifically without nested types) for type-resolution.
-                codeWriter.pushType(new TypeSpec(this));
+                codeWriter.pushType(declarationScope());
 
                 codeWriter.emitJavadoc(javadoc);
                 codeWriter.emitAnnotations(annotations, false);
                 codeWriter.emitModifiers(modifiers, Util.union(implicitModifiers, kind.asMemberModifiers));
                 if (kind == Kind.ANNOTATION)
                 {
-                    codeWriter.emit("$L $L", "@interface", name + typeArguments);
+                    codeWriter.emit("@interface ").emit(name + typeArguments);
                 } else
                 {
-                    codeWriter.emit("$L $L", kind.name().toLowerCase(Locale.US), name + typeArguments);
+                    codeWriter.emit(kind.name().toLowerCase(Locale.US)).emit(" ").emit(name + typeArguments);
                 }
                 codeWriter.emitTypeVariables(typeVariables);
 
@@ -265,7 +304,7 @@ public final class TypeSpec
                     for (TypeName type : extendsTypes)
                     {
                         if (!firstType) codeWriter.emit(",");
-                        codeWriter.emit(" $T", type);
+                        codeWriter.emit(" ").emitType(type);
                         firstType = false;
                     }
                 }
@@ -277,7 +316,7 @@ public final class TypeSpec
                     for (TypeName type : implementsTypes)
                     {
                         if (!firstType) codeWriter.emit(",");
-                        codeWriter.emit(" $T", type);
+                        codeWriter.emit(" ").emitType(type);
                         firstType = false;
                     }
                 }
@@ -294,7 +333,7 @@ public final class TypeSpec
                  i.hasNext(); )
             {
                 Map.Entry<String, TypeSpec> enumConstant = i.next();
-                if (!firstMember) codeWriter.emit("\n");
+                if (!firstMember) codeWriter.emitBlankLine();
                 enumConstant.getValue().emit(codeWriter, enumConstant.getKey(), Collections.emptySet());
                 firstMember = false;
                 if (i.hasNext())
@@ -313,14 +352,14 @@ public final class TypeSpec
             for (FieldSpec fieldSpec : fieldSpecs)
             {
                 if (!fieldSpec.hasModifier(Modifier.STATIC)) continue;
-                if (!firstMember) codeWriter.emit("\n");
+                if (!firstMember) codeWriter.emitBlankLine();
                 fieldSpec.emit(codeWriter, kind.implicitFieldModifiers);
                 firstMember = false;
             }
 
             if (!staticBlock.isEmpty())
             {
-                if (!firstMember) codeWriter.emit("\n");
+                if (!firstMember) codeWriter.emitBlankLine();
                 codeWriter.emit(staticBlock);
                 firstMember = false;
             }
@@ -329,7 +368,7 @@ public final class TypeSpec
             for (FieldSpec fieldSpec : fieldSpecs)
             {
                 if (fieldSpec.hasModifier(Modifier.STATIC)) continue;
-                if (!firstMember) codeWriter.emit("\n");
+                if (!firstMember) codeWriter.emitBlankLine();
                 fieldSpec.emit(codeWriter, kind.implicitFieldModifiers);
                 firstMember = false;
             }
@@ -337,7 +376,7 @@ public final class TypeSpec
             // Initializer block.
             if (!initializerBlock.isEmpty())
             {
-                if (!firstMember) codeWriter.emit("\n");
+                if (!firstMember) codeWriter.emitBlankLine();
                 codeWriter.emit(initializerBlock);
                 firstMember = false;
             }
@@ -346,7 +385,7 @@ public final class TypeSpec
             for (MethodSpec methodSpec : methodSpecs)
             {
                 if (!methodSpec.isConstructor()) continue;
-                if (!firstMember) codeWriter.emit("\n");
+                if (!firstMember) codeWriter.emitBlankLine();
                 methodSpec.emit(codeWriter, name, kind.implicitMethodModifiers);
                 firstMember = false;
             }
@@ -355,7 +394,7 @@ public final class TypeSpec
             for (MethodSpec methodSpec : methodSpecs)
             {
                 if (methodSpec.isConstructor()) continue;
-                if (!firstMember) codeWriter.emit("\n");
+                if (!firstMember) codeWriter.emitBlankLine();
                 methodSpec.emit(codeWriter, name, kind.implicitMethodModifiers);
                 firstMember = false;
             }
@@ -363,7 +402,7 @@ public final class TypeSpec
             // Types.
             for (TypeSpec typeSpec : typeSpecs)
             {
-                if (!firstMember) codeWriter.emit("\n");
+                if (!firstMember) codeWriter.emitBlankLine();
                 typeSpec.emit(codeWriter, null, kind.implicitTypeModifiers);
                 firstMember = false;
             }
@@ -389,13 +428,41 @@ public final class TypeSpec
         if (this == o) return true;
         if (o == null) return false;
         if (getClass() != o.getClass()) return false;
-        return toString().equals(o.toString());
+        TypeSpec that = (TypeSpec) o;
+        return hashCode() == that.hashCode()
+                && kind == that.kind
+                && Objects.equals(name, that.name)
+                && Objects.equals(typeArguments, that.typeArguments)
+                && Objects.equals(anonymousTypeArguments, that.anonymousTypeArguments)
+                && javadoc.equals(that.javadoc)
+                && annotations.equals(that.annotations)
+                && modifiers.equals(that.modifiers)
+                && Util.typeVariablesEqual(typeVariables, that.typeVariables)
+                && Objects.equals(superclass, that.superclass)
+                && superinterfaces.equals(that.superinterfaces)
+                && Util.orderedEquals(enumConstants, that.enumConstants)
+                && fieldSpecs.equals(that.fieldSpecs)
+                && staticBlock.equals(that.staticBlock)
+                && initializerBlock.equals(that.initializerBlock)
+                && methodSpecs.equals(that.methodSpecs)
+                && typeSpecs.equals(that.typeSpecs)
+                && alwaysQualifiedNames.equals(that.alwaysQualifiedNames)
+                && imports.equals(that.imports);
     }
 
     @Override
     public int hashCode()
     {
-        return toString().hashCode();
+        int result = cachedHashCode;
+        if (result == 0)
+        {
+            result = Objects.hash(kind, name, typeArguments, anonymousTypeArguments, javadoc,
+                    annotations, modifiers, typeVariables, superclass, superinterfaces, enumConstants,
+                    fieldSpecs, staticBlock, initializerBlock, methodSpecs, typeSpecs,
+                    alwaysQualifiedNames, imports);
+            cachedHashCode = result;
+        }
+        return result;
     }
 
     @Override
@@ -462,6 +529,7 @@ public final class TypeSpec
         public final Map<String, TypeSpec> enumConstants = new LinkedHashMap<>();
         public final List<AnnotationSpec> annotations = new ArrayList<>();
         public final List<String> imports = new ArrayList<>();
+        final Map<String, ClassName> importedClasses = new HashMap<>();
         public final List<Modifier> modifiers = new ArrayList<>();
         public final List<TypeVariableName> typeVariables = new ArrayList<>();
         public final List<TypeName> superinterfaces = new ArrayList<>();
@@ -476,6 +544,7 @@ public final class TypeSpec
         private final CodeBlock anonymousTypeArguments;
         private final CodeBlock.Builder javadoc = CodeBlock.builder();
         private final CodeBlock.Builder staticBlock = CodeBlock.builder();
+        private final List<CodeBlock> staticBlocks = new ArrayList<>();
         private final CodeBlock.Builder initializerBlock = CodeBlock.builder();
         private TypeName superclass = ClassName.OBJECT;
 
@@ -524,6 +593,7 @@ public final class TypeSpec
         public Builder addImport(ClassName importClass)
         {
             this.imports.add(importClass.canonicalName);
+            this.importedClasses.put(importClass.canonicalName, importClass);
             return this;
         }
 
@@ -720,6 +790,7 @@ public final class TypeSpec
         public Builder addStaticBlock(CodeBlock block)
         {
             staticBlock.beginControlFlow("static").add(block).endControlFlow();
+            staticBlocks.add(block);
             return this;
         }
 
@@ -753,6 +824,58 @@ public final class TypeSpec
             return this;
         }
 
+        /**
+         * Splits the methods and static blocks added so far whose estimated bytecode is larger than
+         * {@code maxBytecodeSize}, moving parts of their code into private helper methods. Methods
+         * are split by {@link MethodSpec#split}; static blocks call helpers named {@code
+         * staticInit$1}, {@code staticInit$2} and so on. Helper names skip the names of the type's
+         * other methods. Pass {@link MethodSpec#HUGE_METHOD_LIMIT} to keep generated methods small
+         * enough for the JIT to compile them.
+         *
+         * <p>Code is only moved between top-level lines, which must not share local variables,
+         * return early, or assign final fields. Constructors and field initializers are never split.
+         * Interfaces are left as they are, since Java 8 doesn't allow private interface methods.
+         */
+        public Builder splitLargeMethods(int maxBytecodeSize)
+        {
+            checkArgument(maxBytecodeSize > 0, "maxBytecodeSize <= 0: %s", maxBytecodeSize);
+            if (kind == Kind.INTERFACE) return this;
+            Set<String> methodNames = new HashSet<>();
+            for (MethodSpec methodSpec : methodSpecs)
+            {
+                methodNames.add(methodSpec.name);
+            }
+
+            List<MethodSpec> splitMethods = new ArrayList<>();
+            for (MethodSpec methodSpec : methodSpecs)
+            {
+                splitMethods.addAll(methodSpec.split(maxBytecodeSize, methodNames));
+            }
+            methodSpecs.clear();
+            methodSpecs.addAll(splitMethods);
+
+            List<CodeBlock> blocks = new ArrayList<>(staticBlocks);
+            staticBlock.clear();
+            staticBlocks.clear();
+            for (CodeBlock block : blocks)
+            {
+                List<CodeBlock> chunks = block.split(maxBytecodeSize);
+                CodeBlock.Builder calls = CodeBlock.builder();
+                for (int i = 0; i < chunks.size() - 1; i++)
+                {
+                    String helperName = MethodSpec.newHelperName("staticInit", methodNames);
+                    methodSpecs.add(MethodSpec.methodBuilder(helperName)
+                            .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                            .addCode(chunks.get(i))
+                            .build());
+                    calls.addStatement("$N()", helperName);
+                }
+                calls.add(chunks.get(chunks.size() - 1));
+                addStaticBlock(chunks.size() == 1 ? block : calls.build());
+            }
+            return this;
+        }
+
         public Builder addTypes(Iterable<TypeSpec> typeSpecs)
         {
             checkArgument(typeSpecs != null, "typeSpecs == null");
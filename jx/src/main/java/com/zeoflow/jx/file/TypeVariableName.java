@@ -122,6 +122,12 @@ public final class TypeVariableName extends TypeName
      * Returns type variable equivalent to {@code element}.
      */
     public static TypeVariableName get(TypeParameterElement element)
+    {
+        TypeMirrorCache cache = TypeMirrorCache.current();
+        if (cache != null) return cache.get(element);
+        return convert(element);
+    }
+    static TypeVariableName convert(TypeParameterElement element)
     {
         String name = element.getSimpleName().toString();
         List<? extends TypeMirror> boundsMirrors = element.getBounds();
@@ -187,6 +193,22 @@ public final class TypeVariableName extends TypeName
         newBounds.addAll(bounds);
         return new TypeVariableName(name, newBounds, annotations);
     }
+    /**
+     * Bounds are only emitted where the variable is declared, so like the rendered name they don't
+     * take part in equality. This also keeps recursive bounds like {@code E extends Enum<E>} from
+     * recursing here.
+     */
+    @Override
+    boolean structurallyEquals(TypeName o)
+    {
+        TypeVariableName that = (TypeVariableName) o;
+        return name.equals(that.name) && annotations.equals(that.annotations);
+    }
+    @Override
+    int structuralHashCode()
+    {
+        return 31 * name.hashCode() + annotations.hashCode();
+    }
     @Override
     CodeWriter emit(CodeWriter out) throws IOException
     {
@@ -22,6 +22,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -37,6 +38,12 @@ import static java.lang.Character.isISOControl;
 final class Util
 {
 
+    /**
+     * The most bytes a string constant can take in a class file. The format allows 65535, but javac
+     * rejects constants of 65535 characters.
+     */
+    static final int MAX_STRING_CONSTANT_BYTES = 65534;
+
     private Util()
     {
     }
@@ -91,6 +98,35 @@ final class Util
         return result;
     }
 
+    /**
+     * Returns true if {@code a} and {@code b} have equal entries in the same iteration order. Specs
+     * emit their maps in iteration order, so {@link Map#equals} is too lenient for them.
+     */
+    static <K, V> boolean orderedEquals(Map<K, V> a, Map<K, V> b)
+    {
+        if (a.size() != b.size()) return false;
+        Iterator<Map.Entry<K, V>> i = b.entrySet().iterator();
+        for (Map.Entry<K, V> entry : a.entrySet())
+        {
+            if (!entry.equals(i.next())) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the type variable declarations {@code a} and {@code b} are equal. Unlike
+     * {@link TypeVariableName#equals}, this also compares bounds, which declarations emit.
+     */
+    static boolean typeVariablesEqual(List<TypeVariableName> a, List<TypeVariableName> b)
+    {
+        if (!a.equals(b)) return false;
+        for (int i = 0, size = a.size(); i < size; i++)
+        {
+            if (!a.get(i).bounds.equals(b.get(i).bounds)) return false;
+        }
+        return true;
+    }
+
     static void requireExactlyOneOf(Set<Modifier> modifiers, Modifier... mutuallyExclusive)
     {
         int count = 0;
@@ -129,37 +165,73 @@ final class Util
     }
 
     /**
-     * Returns the string literal representing {@code value}, including wrapping double quotes.
+     * Appends {@code c} as it is written inside a string literal's double quotes.
+     */
+    static void appendStringLiteralCharacter(StringBuilder out, char c)
+    {
+        switch (c)
+        {
+            case '\b':
+                out.append("\\b");
+                break;
+            case '\t':
+                out.append("\\t");
+                break;
+            case '\n':
+                out.append("\\n");
+                break;
+            case '\f':
+                out.append("\\f");
+                break;
+            case '\r':
+                out.append("\\r");
+                break;
+            case '\"':
+                out.append("\\\"");
+                break;
+            case '\\':
+                out.append("\\\\");
+                break;
+            default:
+                if (isISOControl(c))
+                {
+                    out.append("\\u");
+                    for (int shift = 12; shift >= 0; shift -= 4)
+                    {
+                        out.append(Character.forDigit((c >> shift) & 0xf, 16));
+                    }
+                } else
+                {
+                    out.append(c);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Returns the number of bytes {@code c} takes in the modified UTF-8 of a class file's constant
+     * pool.
+     */
+    static int modifiedUtf8Length(char c)
+    {
+        if (c != 0 && c < 0x80) return 1;
+        return c < 0x800 ? 2 : 3;
+    }
+
+    /**
+     * Returns true if {@code value} fits in a single string constant of a class file.
      */
-    static String stringLiteralWithDoubleQuotes(String value, String indent)
+    static boolean fitsInStringConstant(String value)
     {
-        StringBuilder result = new StringBuilder(value.length() + 2);
-        result.append('"');
-        for (int i = 0; i < value.length(); i++)
+        int length = value.length();
+        if (length * 3 <= MAX_STRING_CONSTANT_BYTES) return true;
+        int bytes = 0;
+        for (int i = 0; i < length; i++)
         {
-            char c = value.charAt(i);
-            // trivial case: single quote must not be escaped
-            if (c == '\'')
-            {
-                result.append("'");
-                continue;
-            }
-            // trivial case: double quotes must be escaped
-            if (c == '\"')
-            {
-                result.append("\\\"");
-                continue;
-            }
-            // default case: just let character literal do its work
-            result.append(characterLiteralWithoutSingleQuotes(c));
-            // need to append indent after linefeed?
-            if (c == '\n' && i + 1 < value.length())
-            {
-                result.append("\"\n").append(indent).append(indent).append("+ \"");
-            }
+            bytes += modifiedUtf8Length(value.charAt(i));
+            if (bytes > MAX_STRING_CONSTANT_BYTES) return false;
         }
-        result.append('"');
-        return result.toString();
+        return true;
     }
 
 }
@@ -27,6 +27,8 @@ import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 public final class WildcardTypeName extends TypeName
 {
@@ -130,15 +132,43 @@ public final class WildcardTypeName extends TypeName
         return new WildcardTypeName(upperBounds, lowerBounds);
     }
     @Override
+    boolean anyComponentMatches(Predicate<? super TypeName> predicate)
+    {
+        return anyMatch(upperBounds, predicate) || anyMatch(lowerBounds, predicate);
+    }
+    @Override
+    TypeName substituteComponents(Function<? super TypeName, ? extends TypeName> substitution)
+    {
+        List<TypeName> newUpperBounds = substituteAll(upperBounds, substitution);
+        List<TypeName> newLowerBounds = substituteAll(lowerBounds, substitution);
+        if (newUpperBounds == upperBounds && newLowerBounds == lowerBounds) return this;
+        return new WildcardTypeName(newUpperBounds, newLowerBounds, annotations);
+    }
+    @Override
+    boolean structurallyEquals(TypeName o)
+    {
+        WildcardTypeName that = (WildcardTypeName) o;
+        return upperBounds.equals(that.upperBounds)
+                && lowerBounds.equals(that.lowerBounds)
+                && annotations.equals(that.annotations);
+    }
+    @Override
+    int structuralHashCode()
+    {
+        int result = upperBounds.hashCode();
+        result = 31 * result + lowerBounds.hashCode();
+        return 31 * result + annotations.hashCode();
+    }
+    @Override
     CodeWriter emit(CodeWriter out) throws IOException
     {
         if (lowerBounds.size() == 1)
         {
-            return out.emit("? super $T", lowerBounds.get(0));
+            return out.emit("? super ").emitType(lowerBounds.get(0));
         }
         return upperBounds.get(0).equals(TypeName.OBJECT)
                 ? out.emit("?")
-                : out.emit("? extends $T", upperBounds.get(0));
+                : out.emit("? extends ").emitType(upperBounds.get(0));
     }
 
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2021 ZeoFlow SRL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zeoflow.jx.file;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public final class ClassNameTest
+{
+
+    @Test
+    public void interningReturnsOneInstancePerClass()
+    {
+        // Converted before interning is enabled, so the cached names aren't interned.
+        ClassName map = ClassName.get(Map.class);
+        ClassName entry = ClassName.get(Map.Entry.class);
+        ClassName.setInterningEnabled(true);
+        try
+        {
+            assertSame(ClassName.OBJECT, ClassName.get(Object.class));
+            assertSame(ClassName.OBJECT, ClassName.get("java.lang", "Object"));
+            assertSame(ClassName.OBJECT, TypeName.OBJECT);
+            assertSame(ClassName.OBJECT, TypeName.get(Object.class));
+            assertSame(ClassName.get(Integer.class), TypeName.INT.box());
+            assertSame(ClassName.get(Map.class), ClassName.get("java.util", "Map"));
+            assertSame(ClassName.get(Map.class), ClassName.bestGuess("java.util.Map"));
+            assertSame(ClassName.get(Map.Entry.class), ClassName.get("java.util", "Map", "Entry"));
+            assertSame(ClassName.get(Map.Entry.class), map.nestedClass("Entry"));
+            assertSame(ClassName.get(Map.Entry.class), entry.peerClass("Entry"));
+        } finally
+        {
+            ClassName.setInterningEnabled(false);
+        }
+        assertNotSame(ClassName.get("java.util", "Map"), ClassName.get("java.util", "Map"));
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2021 ZeoFlow SRL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zeoflow.jx.file;
+
+import org.junit.Test;
+
+import javax.lang.model.element.Modifier;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.ToolProvider;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public final class ClassSharderTest
+{
+
+    private static final ClassName REGISTRY = ClassName.get("p", "Registry");
+
+    @Test
+    public void shardedFilesCompile() throws IOException
+    {
+        TypeSpec.Builder registry = TypeSpec.classBuilder(REGISTRY)
+                .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                .addField(FieldSpec.builder(int[].class, "TABLE")
+                        .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                        .initializer("table()")
+                        .build())
+                .addMethod(MethodSpec.constructorBuilder()
+                        .addModifiers(Modifier.PRIVATE)
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("table")
+                        .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                        .returns(int[].class)
+                        .addStatement("return new int[] {1, 2}")
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("helper")
+                        .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                        .returns(int.class)
+                        .addParameter(int.class, "x")
+                        .addStatement("return x * 2")
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("first")
+                        .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                        .returns(int.class)
+                        .addStatement("return TABLE[0]")
+                        .build());
+        for (int i = 0; i < 2000; i++)
+        {
+            if (i % 4 == 0)
+            {
+                registry.addField(FieldSpec.builder(String.class, "KEY_" + i)
+                        .addModifiers(Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                        .initializer("$S", "value-" + i)
+                        .build());
+            }
+            registry.addField(FieldSpec.builder(String.class, "NAME_" + i)
+                    .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                    .initializer("$S", "name-" + i)
+                    .build());
+            registry.addMethod(MethodSpec.methodBuilder("name" + i)
+                    .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                    .returns(String.class)
+                    .addStatement("return NAME_$L + helper($L) + $S", i, i, "suffix-" + i)
+                    .build());
+        }
+        List<JavaFile> files = JavaFile.builder("p", registry.build()).build().shard(20000);
+        assertTrue(files.size() > 1);
+
+        MethodSpec read = MethodSpec.methodBuilder("read")
+                .addModifiers(Modifier.STATIC)
+                .returns(String.class)
+                .addParameter(String.class, "key")
+                .beginControlFlow("switch (key)")
+                .addStatement("case $T.KEY_1996: return $T.name1999()", REGISTRY, REGISTRY)
+                .addStatement("default: return key + $T.first()", REGISTRY)
+                .endControlFlow()
+                .build();
+        List<JavaFile> sources = new ArrayList<>(files);
+        sources.add(JavaFile.builder("q", TypeSpec.classBuilder("Caller").addMethod(read).build())
+                .build());
+        assertCompiles(sources);
+    }
+
+    @Test
+    public void constantsAreNotMoved()
+    {
+        TypeSpec.Builder registry = TypeSpec.classBuilder(REGISTRY);
+        for (int i = 0; i < 3000; i++)
+        {
+            registry.addField(FieldSpec.builder(String.class, "KEY_" + i)
+                    .addModifiers(Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                    .initializer("$S", "value-" + i)
+                    .build());
+        }
+        JavaFile javaFile = JavaFile.builder("p", registry.build()).build();
+        assertEquals(Arrays.asList(javaFile), javaFile.shard(3000));
+    }
+
+    @Test
+    public void subclassesAreNotSharded()
+    {
+        TypeSpec.Builder holder = TypeSpec.classBuilder("Holder")
+                .superclass(ClassName.get("p", "Base"));
+        for (int i = 0; i < 2000; i++)
+        {
+            holder.addMethod(MethodSpec.methodBuilder("value" + i)
+                    .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                    .returns(int.class)
+                    .addStatement("return baseValue() + $L", i)
+                    .build());
+        }
+        JavaFile javaFile = JavaFile.builder("p", holder.build()).build();
+        assertEquals(Arrays.asList(javaFile), javaFile.shard(3000));
+    }
+
+    private static void assertCompiles(List<JavaFile> javaFiles) throws IOException
+    {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assumeTrue(compiler != null);
+        List<JavaFileObject> sources = new ArrayList<>();
+        for (JavaFile javaFile : javaFiles)
+        {
+            sources.add(javaFile.toJavaFileObject());
+        }
+        Path classes = Files.createTempDirectory("shards");
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        boolean success = compiler.getTask(null, null, diagnostics,
+                Arrays.asList("-d", classes.toString()), null, sources).call();
+        assertTrue(diagnostics.getDiagnostics().toString(), success);
+    }
+
+}
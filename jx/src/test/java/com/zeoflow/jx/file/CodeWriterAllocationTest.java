@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2021 ZeoFlow SRL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zeoflow.jx.file;
+
+import org.junit.Test;
+
+import javax.lang.model.element.Modifier;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.EnumSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that emitting tokens through {@link CodeWriter} and {@link LineWrapper} allocates next to
+ * nothing once the writer is warmed up.
+ */
+public final class CodeWriterAllocationTest
+{
+
+    private static final int ROUNDS = 20_000;
+    /**
+     * Tokens emitted by each round of {@link #emitTokens}.
+     */
+    private static final int TOKENS_PER_ROUND = 7;
+    /**
+     * Bytes each token may allocate on average, which leaves room for the measurement itself.
+     */
+    private static final int BYTES_PER_TOKEN = 1;
+
+    @Test
+    public void emitAllocatesNearlyNothingPerToken() throws IOException
+    {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+
+        CodeWriter codeWriter = new CodeWriter(new NullAppendable()).indent(3);
+        Set<Modifier> modifiers = EnumSet.of(Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL);
+        emitTokens(codeWriter, modifiers); // Warms up the writer and its line buffers.
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        emitTokens(codeWriter, modifiers);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        long tokens = (long) ROUNDS * TOKENS_PER_ROUND;
+        assertTrue(allocated + " bytes allocated for " + tokens + " tokens",
+                allocated <= tokens * BYTES_PER_TOKEN);
+    }
+
+    private static void emitTokens(CodeWriter codeWriter, Set<Modifier> modifiers)
+            throws IOException
+    {
+        for (int i = 0; i < ROUNDS; i++)
+        {
+            codeWriter.emitModifiers(modifiers);
+            codeWriter.emitAndIndent("int value");
+            codeWriter.emitAndIndent(" = 1;\r\n");
+            codeWriter.emitAndIndent("// a comment\n\n");
+            codeWriter.emitAndIndent("value++;\n");
+        }
+    }
+
+    /**
+     * Discards everything, so that only the writer's allocations are measured.
+     */
+    private static final class NullAppendable implements Appendable
+    {
+        @Override
+        public Appendable append(CharSequence csq)
+        {
+            return this;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end)
+        {
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c)
+        {
+            return this;
+        }
+    }
+
+}
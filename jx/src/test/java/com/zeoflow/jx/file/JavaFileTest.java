@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2021 ZeoFlow SRL
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zeoflow.jx.file;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public final class JavaFileTest
+{
+
+    @Test
+    public void explicitImportOfLowercaseClass()
+    {
+        ClassName lowercase = ClassName.get("com.foo", "lowercase");
+        TypeSpec taco = TypeSpec.classBuilder("Taco")
+                .addField(lowercase, "field")
+                .build();
+        String source = JavaFile.builder("com.example", taco)
+                .addImport(lowercase)
+                .explicitImports(true)
+                .build()
+                .toString();
+        assertEquals(""
+                + "package com.example;\n"
+                + "\n"
+                + "import com.foo.lowercase;\n"
+                + "\n"
+                + "class Taco {\n"
+                + "  lowercase field;\n"
+                + "}\n", source);
+    }
+
+    @Test
+    public void explicitImportFromUppercasePackage()
+    {
+        ClassName bar = ClassName.get("com.Foo.gen", "Bar");
+        TypeSpec taco = TypeSpec.classBuilder("Taco")
+                .addImport(bar)
+                .addField(bar, "field")
+                .build();
+        String source = JavaFile.builder("com.example", taco)
+                .explicitImports(true)
+                .build()
+                .toString();
+        assertEquals(""
+                + "package com.example;\n"
+                + "\n"
+                + "import com.Foo.gen.Bar;\n"
+                + "\n"
+                + "class Taco {\n"
+                + "  Bar field;\n"
+                + "}\n", source);
+    }
+
+}